@@ -1,6 +1,8 @@
 package com.simiacryptus.probabilityModel;
 
 import java.util.Random;
+import java.util.stream.DoubleStream;
+import java.util.stream.StreamSupport;
 
 import com.simiacryptus.data.RealFunction;
 
@@ -8,9 +10,55 @@ public interface Distribution
 {
   RealFunction getDensity();
   
+  /**
+   * Writes the density at each point into densities
+   */
+  default void getDensity(final double[][] points, final double[] densities)
+  {
+    if (densities.length < points.length)
+    {
+      throw new IllegalArgumentException(String.format("%s densities for %s points", densities.length, points.length));
+    }
+    final RealFunction density = this.getDensity();
+    for (int i = 0; i < points.length; i++)
+    {
+      densities[i] = density.evaluate(points[i])[0];
+    }
+  }
+  
   int getDimension();
   
   double[] sample(Random random);
   
   double[][] sample(int count, Random random);
+  
+  /**
+   * Writes count samples into buffer one after another, getDimension() values each. Implementations that can draw
+   * straight into the buffer do so without allocating per sample.
+   * 
+   * @throws IllegalArgumentException if count is negative or buffer can't hold count samples
+   */
+  default void sampleInto(final double[] buffer, final int count, final Random random)
+  {
+    final int dimension = this.getDimension();
+    // In long, so that a product past Integer.MAX_VALUE is too big rather than wrapping; once it fits, so does each
+    // sample's offset
+    if (count < 0 || buffer.length < (long) count * dimension)
+    {
+      throw new IllegalArgumentException(String.format("%s values for %s samples of %s", buffer.length, count, dimension));
+    }
+    for (int i = 0; i < count; i++)
+    {
+      System.arraycopy(this.sample(random), 0, buffer, i * dimension, dimension);
+    }
+  }
+  
+  /**
+   * count samples as a stream of their coordinates, getDimension() values per sample, drawn in blocks through
+   * sampleInto()
+   */
+  default DoubleStream sampleStream(final long count, final Random random)
+  {
+    return StreamSupport.doubleStream(new SampleSpliterator(this, count, random), false);
+  }
 }
\ No newline at end of file
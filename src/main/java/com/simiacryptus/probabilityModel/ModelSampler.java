@@ -2,11 +2,12 @@ package com.simiacryptus.probabilityModel;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
 
 import javax.annotation.Nullable;
 
@@ -19,39 +20,29 @@ import com.simiacryptus.data.RealFunction;
 import com.simiacryptus.data.VolumeMetric;
 import com.simiacryptus.probabilityModel.model.DistributionModel;
 import com.simiacryptus.probabilityModel.model.NodeBase;
+import com.simiacryptus.probabilityModel.volume.DoubleVolume;
+import com.simiacryptus.probabilityModel.volume.SpacialVolume;
 
 public final class ModelSampler implements Distribution
 {
   
+  // Samples drawn from each of sample(count, seed)'s random streams
+  private static final int                           sampleBlockSize = 1024;
+  
   public final DistributionModel<?>                  model;
-  private final Map<NodeBase<?>, Iterator<double[]>> volumeIterators = new HashMap<NodeBase<?>, Iterator<double[]>>();
+  // Shared by every caller; reads the model's current root on each call
+  private final RealFunction                         density;
   
   public ModelSampler(final DistributionModel<?> model)
   {
     this.model = model;
-  }
-  
-  public RealFunction getDensity()
-  {
-    return new RealFunction() {
+    this.density = new RealFunction() {
       
       @Override
       public double[] evaluate(final double[] value)
       {
-        final double[] zero = new double[] { 0 };
         final NodeBase<?> root = ModelSampler.this.model.getRoot();
-        final NodeBase<?> leaf = root.getLeaf(value);
-        if (null == leaf)
-        {
-          return zero;
-        }
-        final double probability = leaf.getWeight() / root.getWeight();
-        final VolumeMetric volumeRatio = leaf.getVolume().divide(root.getVolume());
-        if (volumeRatio.dimension != 0)
-        {
-          return zero;
-        }
-        return new double[] { probability / volumeRatio.value };
+        return new double[] { ModelSampler.this.getDensity(value, root.getWeight(), root.getVolume()) };
       }
       
       @Override
@@ -68,32 +59,97 @@ public final class ModelSampler implements Distribution
     };
   }
   
+  public RealFunction getDensity()
+  {
+    return this.density;
+  }
+  
+  /**
+   * Writes the density at each point into densities, spreading the points across the common fork-join pool
+   */
+  @Override
+  public void getDensity(final double[][] points, final double[] densities)
+  {
+    if (densities.length < points.length)
+    {
+      throw new IllegalArgumentException(String.format("%s densities for %s points", densities.length, points.length));
+    }
+    final NodeBase<?> root = this.model.getRoot();
+    final double rootWeight = root.getWeight();
+    final VolumeMetric rootVolume = root.getVolume();
+    IntStream.range(0, points.length).parallel().forEach(i -> densities[i] = this.getDensity(points[i], rootWeight, rootVolume));
+  }
+  
+  private double getDensity(final double[] point, final double rootWeight, final VolumeMetric rootVolume)
+  {
+    final NodeBase<?> leaf = this.model.getLeaf(point);
+    if (null == leaf)
+    {
+      return 0;
+    }
+    final double probability = leaf.getWeight() / rootWeight;
+    final VolumeMetric volumeRatio = leaf.getVolume().divide(rootVolume);
+    if (volumeRatio.dimension != 0)
+    {
+      return 0;
+    }
+    return probability / volumeRatio.value;
+  }
+  
   public int getDimension()
   {
     return this.model.getRegion().dimensions();
   }
   
+  /**
+   * Draws from a stream split off the caller's, so that nothing is shared with other callers
+   */
   public double[] sample(final Random random)
   {
-    final NodeBase<?> root = ModelSampler.this.model.getRoot();
+    return this.sample(new SplittableRandom(random.nextLong()));
+  }
+  
+  /**
+   * Draws count independent samples across the common fork-join pool. The samples are drawn in fixed blocks, each from
+   * its own stream split in turn from the seed, so the result depends only on the seed and not on the number of
+   * threads.
+   */
+  public double[][] sample(final int count, final long seed)
+  {
+    final double[][] points = new double[count][];
+    final SplittableRandom[] streams = new SplittableRandom[(count + sampleBlockSize - 1) / sampleBlockSize];
+    final SplittableRandom random = new SplittableRandom(seed);
+    for (int i = 0; i < streams.length; i++)
+    {
+      streams[i] = random.split();
+    }
+    IntStream.range(0, streams.length).parallel().forEach(block -> {
+      final int to = Math.min(count, (block + 1) * sampleBlockSize);
+      for (int i = block * sampleBlockSize; i < to; i++)
+      {
+        points[i] = this.sample(streams[block]);
+      }
+    });
+    return points;
+  }
+  
+  private double[] sample(final SplittableRandom random)
+  {
     double[] point = null;
     while (null == point)
     {
-      final NodeBase<?> leaf = getLeaf(random, root);
-      point = getPointIterator(leaf).next();
+      point = this.model.sampleLeaf(random).getRegion().sample(random);
     }
     return point;
   }
-
-  private Iterator<double[]> getPointIterator(final NodeBase<?> leaf)
+  
+  /**
+   * A point drawn from the leaf's region, or from the whole model if the region turns out to be empty
+   */
+  private double[] sample(final NodeBase<?> leaf, final SplittableRandom random)
   {
-    Iterator<double[]> iterator = this.volumeIterators.get(leaf);
-    if (null == iterator)
-    {
-      iterator = leaf.getRegion().points().iterator();
-      this.volumeIterators.put(leaf, iterator);
-    }
-    return iterator;
+    final double[] point = leaf.getRegion().sample(random);
+    return null == point ? this.sample(random) : point;
   }
   
   public double[][] sample(int count, Random random)
@@ -101,22 +157,123 @@ public final class ModelSampler implements Distribution
     final NodeBase<?> root = ModelSampler.this.model.getRoot();
     @SuppressWarnings("unchecked")
     final Map<NodeBase<?>, Integer> map = (Map<NodeBase<?>, Integer>) getLeaf(count, root);
-    List<double[]> points = new ArrayList<double[]>();
+    final double[][] points = new double[count][];
+    final SplittableRandom stream = new SplittableRandom(random.nextLong());
+    int i = 0;
     for(Entry<NodeBase<?>, Integer> e : map.entrySet())
     {
-      final Iterator<double[]> pointIterator = getPointIterator(e.getKey());
-      for(int i=0;i<e.getValue();i++)
+      for(int j=0;j<e.getValue();j++)
       {
-        points.add(pointIterator.next());
+        points[i++] = this.sample(e.getKey(), stream);
       }
     }
-    while(points.size() < count)
+    while(i < count)
+    {
+      points[i++] = sample(random);
+    }
+    return points;
+  }
+  
+  /**
+   * Draws count independent samples straight into buffer. Only points in box leaves are written without allocating;
+   * each point from any other leaf is drawn into an array of its own and copied in.
+   * 
+   * @throws IllegalArgumentException if count is negative or buffer can't hold count samples
+   */
+  @Override
+  public void sampleInto(final double[] buffer, final int count, final Random random)
+  {
+    final int dimension = this.getDimension();
+    // In long, so that a product past Integer.MAX_VALUE is too big rather than wrapping; once it fits, so does each
+    // sample's offset
+    if (count < 0 || buffer.length < (long) count * dimension)
+    {
+      throw new IllegalArgumentException(String.format("%s values for %s samples of %s", buffer.length, count, dimension));
+    }
+    final SplittableRandom stream = new SplittableRandom(random.nextLong());
+    for (int i = 0; i < count; i++)
     {
-      points.add(sample(random));
+      final NodeBase<?> leaf = this.model.sampleLeaf(random);
+      final SpacialVolume region = leaf.getRegion();
+      if (region instanceof DoubleVolume)
+      {
+        ((DoubleVolume) region).sample(random, buffer, i * dimension);
+      }
+      else
+      {
+        System.arraycopy(this.sample(leaf, stream), 0, buffer, i * dimension, dimension);
+      }
     }
-    return points.toArray(new double[][]{});
   }
 
+  /**
+   * Draws count samples with less variance than independent ones. The count is divided among the leaves by systematic
+   * sampling, so each gets the whole or next whole number nearest its share of the weight. Points within a box leaf
+   * are a randomly shifted Halton sequence scaled to its bounds, so estimates from them stay unbiased; other leaves are
+   * sampled independently.
+   */
+  public double[][] sampleLowDiscrepancy(final int count, final Random random)
+  {
+    final List<NodeBase<?>> leaves = new ArrayList<NodeBase<?>>();
+    final List<NodeBase<?>> stack = new ArrayList<NodeBase<?>>();
+    stack.add(this.model.getRoot());
+    double total = 0;
+    while (!stack.isEmpty())
+    {
+      final NodeBase<?> node = stack.remove(stack.size() - 1);
+      if (null == node.getRule())
+      {
+        if (0 < node.getWeight())
+        {
+          leaves.add(node);
+          total += node.getWeight();
+        }
+        continue;
+      }
+      for (final NodeBase<?> child : node.getChildren())
+      {
+        if (null != child)
+        {
+          stack.add(child);
+        }
+      }
+    }
+    if (leaves.isEmpty())
+    {
+      return this.sample(count, random);
+    }
+    final double[][] points = new double[count][];
+    final SplittableRandom stream = new SplittableRandom(random.nextLong());
+    final double scale = count / total;
+    final double offset = random.nextDouble();
+    double cumulative = 0;
+    int from = 0;
+    for (int i = 0; i < leaves.size(); i++)
+    {
+      final NodeBase<?> leaf = leaves.get(i);
+      cumulative += leaf.getWeight();
+      final int to = i == leaves.size() - 1 ? count : (int) Math.min(count, Math.floor(offset + cumulative * scale));
+      if (to <= from)
+      {
+        continue;
+      }
+      final SpacialVolume region = leaf.getRegion();
+      if (region instanceof DoubleVolume)
+      {
+        System.arraycopy(((DoubleVolume) region).sampleLowDiscrepancy(to - from, random), 0, points, from, to - from);
+      }
+      else
+      {
+        for (int j = from; j < to; j++)
+        {
+          points[j] = this.sample(leaf, stream);
+        }
+      }
+      from = to;
+    }
+    return points;
+  }
+  
   @Override
   public String toString()
   {
@@ -144,30 +301,6 @@ public final class ModelSampler implements Distribution
     return map;
   }
 
-  @SuppressWarnings("unchecked")
-  private static <T extends NodeBase<T>> T getLeaf(final Random random, final NodeBase<T> node)
-  {
-    if (node.getChildren().size() == 0)
-    {
-      return (T) node;
-    }
-    final double modelSize = node.getWeight();
-    double fate = random.nextDouble() * modelSize;
-    final Map<T, Double> childrenWeights = childWeightMap(node);
-    for (final Entry<T, Double> e : childrenWeights.entrySet())
-    {
-      fate -= e.getValue();
-      if (fate < 0)
-      {
-        final T leaf = getLeaf(random, e.getKey());
-        assert null != leaf;
-        return leaf;
-      }
-    }
-    assert false;
-    return null;
-  }
-
   private static <T extends NodeBase<T>> ImmutableMap<T, Double> childWeightMap(final NodeBase<T> distributionModelNode)
   {
     final ImmutableMap<T, Double> childrenWeights = Maps.toMap(Collections2.filter(distributionModelNode.getChildren(), new Predicate<T>() {
@@ -0,0 +1,59 @@
+package com.simiacryptus.probabilityModel;
+
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.DoubleConsumer;
+
+/**
+ * The coordinates of a fixed number of samples, drawn a block at a time into a reused buffer
+ */
+final class SampleSpliterator extends Spliterators.AbstractDoubleSpliterator
+{
+  private static final int   blockSize = 256;
+
+  private final Distribution distribution;
+  private final Random       random;
+  private final int          dimension;
+  private final double[]     buffer;
+  // Samples not yet drawn, and the values drawn but not yet consumed
+  private long               remaining;
+  private int                position;
+  private int                limit;
+
+  SampleSpliterator(final Distribution distribution, final long count, final Random random)
+  {
+    super(count * distribution.getDimension(), Spliterator.ORDERED | Spliterator.SIZED | Spliterator.NONNULL);
+    this.distribution = distribution;
+    this.random = random;
+    this.dimension = distribution.getDimension();
+    this.buffer = new double[(int) Math.min(blockSize, count) * this.dimension];
+    this.remaining = count;
+  }
+
+  @Override
+  public boolean tryAdvance(final DoubleConsumer action)
+  {
+    if (this.position == this.limit)
+    {
+      if (0 == this.remaining)
+      {
+        return false;
+      }
+      final int samples = (int) Math.min(blockSize, this.remaining);
+      this.distribution.sampleInto(this.buffer, samples, this.random);
+      this.remaining -= samples;
+      this.position = 0;
+      this.limit = samples * this.dimension;
+    }
+    action.accept(this.buffer[this.position++]);
+    return true;
+  }
+
+  @Override
+  public long estimateSize()
+  {
+    return this.remaining * this.dimension + this.limit - this.position;
+  }
+
+}
@@ -0,0 +1,121 @@
+package com.simiacryptus.probabilityModel.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * A Walker alias table over a model's leaves, so that a leaf can be drawn with probability proportional to its weight
+ * in constant time: pick a column uniformly, then either its own leaf or its alias by a single comparison. Built with
+ * Vose's method. If no leaf has any weight, every leaf is equally likely.
+ */
+final class AliasTable<T extends NodeBase<T>>
+{
+
+  @SuppressWarnings("unchecked")
+  static <T extends NodeBase<T>> AliasTable<T> build(final T root, final int version)
+  {
+    final List<T> leaves = new ArrayList<T>();
+    final List<T> stack = new ArrayList<T>();
+    stack.add(root);
+    while (!stack.isEmpty())
+    {
+      final T node = stack.remove(stack.size() - 1);
+      final NodeBase.Structure<T> structure = node.getStructure();
+      if (null == structure.rule)
+      {
+        leaves.add(node);
+        continue;
+      }
+      for (final T child : structure.children)
+      {
+        if (null != child)
+        {
+          stack.add(child);
+        }
+      }
+    }
+    final double[] weight = new double[leaves.size()];
+    double total = 0;
+    for (int i = 0; i < weight.length; i++)
+    {
+      final double w = leaves.get(i).getWeight();
+      weight[i] = 0 < w ? w : 0;
+      total += weight[i];
+    }
+    return new AliasTable<T>((T[]) leaves.toArray(new NodeBase<?>[leaves.size()]), weight, total, version);
+  }
+
+  final int                version;
+  private final T[]        leaves;
+  // Per column: the chance of keeping its own leaf, and the leaf drawn otherwise
+  private final double[]   probability;
+  private final int[]      alias;
+
+  private AliasTable(final T[] leaves, final double[] weight, final double total, final int version)
+  {
+    this.version = version;
+    this.leaves = leaves;
+    final int n = leaves.length;
+    this.probability = new double[n];
+    this.alias = new int[n];
+    // Columns scaled so the mean is 1, split into those under and over it
+    final int[] small = new int[n];
+    final int[] large = new int[n];
+    int smallCount = 0;
+    int largeCount = 0;
+    for (int i = 0; i < n; i++)
+    {
+      this.probability[i] = 0 < total ? weight[i] * n / total : 1;
+      if (this.probability[i] < 1)
+      {
+        small[smallCount++] = i;
+      }
+      else
+      {
+        large[largeCount++] = i;
+      }
+    }
+    while (0 < smallCount && 0 < largeCount)
+    {
+      final int under = small[--smallCount];
+      final int over = large[--largeCount];
+      this.alias[under] = over;
+      this.probability[over] -= 1 - this.probability[under];
+      if (this.probability[over] < 1)
+      {
+        small[smallCount++] = over;
+      }
+      else
+      {
+        large[largeCount++] = over;
+      }
+    }
+    // Whatever remains is 1 up to rounding
+    while (0 < largeCount)
+    {
+      this.probability[large[--largeCount]] = 1;
+    }
+    while (0 < smallCount)
+    {
+      this.probability[small[--smallCount]] = 1;
+    }
+  }
+
+  /**
+   * A leaf drawn with probability proportional to its weight
+   */
+  T sample(final Random random)
+  {
+    final int column = random.nextInt(this.leaves.length);
+    return random.nextDouble() < this.probability[column] ? this.leaves[column] : this.leaves[this.alias[column]];
+  }
+
+  T sample(final SplittableRandom random)
+  {
+    final int column = random.nextInt(this.leaves.length);
+    return random.nextDouble() < this.probability[column] ? this.leaves[column] : this.leaves[this.alias[column]];
+  }
+
+}
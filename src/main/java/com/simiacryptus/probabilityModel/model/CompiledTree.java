@@ -0,0 +1,159 @@
+package com.simiacryptus.probabilityModel.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.simiacryptus.data.DoubleRange;
+import com.simiacryptus.probabilityModel.rules.MetricRule;
+import com.simiacryptus.probabilityModel.rules.PartitionRule;
+import com.simiacryptus.probabilityModel.rules.metrics.DimensionMetric;
+import com.simiacryptus.probabilityModel.volume.DoubleVolume;
+
+/**
+ * An axis-aligned tree flattened into primitive arrays, so that finding a point's leaf is a loop of comparisons.
+ * Nodes are numbered breadth first. Since each node's region lies within its parent's, only the leaf's bounds need
+ * checking, which gives the same leaf as NodeBase.getLeaf.
+ */
+final class CompiledTree<T extends NodeBase<T>>
+{
+
+  /**
+   * Returns null unless every rule splits on a single dimension, and every leaf's region is a DoubleVolume
+   */
+  static <T extends NodeBase<T>> CompiledTree<T> compile(final T root, final int version)
+  {
+    final List<T> nodes = new ArrayList<T>();
+    // Each node's rule and children are read once, so a concurrent change can't pair a rule with the wrong children
+    final List<NodeBase.Structure<T>> structures = new ArrayList<NodeBase.Structure<T>>();
+    int partitions = 0;
+    int leaves = 0;
+    nodes.add(root);
+    for (int i = 0; i < nodes.size(); i++)
+    {
+      final T node = nodes.get(i);
+      final NodeBase.Structure<T> structure = node.getStructure();
+      structures.add(structure);
+      final PartitionRule rule = structure.rule;
+      if (null == rule)
+      {
+        if (!(node.getRoutingRegion() instanceof DoubleVolume))
+        {
+          return null;
+        }
+        leaves++;
+        continue;
+      }
+      if (!(rule instanceof MetricRule) || !(((MetricRule) rule).metric instanceof DimensionMetric))
+      {
+        return null;
+      }
+      for (final T child : structure.children)
+      {
+        if (null != child)
+        {
+          nodes.add(child);
+        }
+        partitions++;
+      }
+    }
+    return new CompiledTree<T>(nodes, structures, partitions, leaves, root.getRoutingRegion().dimensions(), version);
+  }
+
+  final int              version;
+  private final int      dimensions;
+  // Per node: the split dimension, or -1 for a leaf, and where its partitions (or, for a leaf, its bounds) start
+  private final int[]    splitDimension;
+  private final int[]    offset;
+  private final int[]    partitions;
+  // Per partition: the value a point must be less than to fall into it (unused for the last), and its node or -1
+  private final double[] splitValue;
+  private final int[]    child;
+  // Per leaf: its node, and the lower and upper bound of each dimension of its region
+  private final T[]      leaves;
+  private final double[] lower;
+  private final double[] upper;
+
+  @SuppressWarnings("unchecked")
+  private CompiledTree(final List<T> nodes, final List<NodeBase.Structure<T>> structures, final int partitionCount, final int leafCount, final int dimensions, final int version)
+  {
+    this.version = version;
+    this.dimensions = dimensions;
+    this.splitDimension = new int[nodes.size()];
+    this.offset = new int[nodes.size()];
+    this.partitions = new int[nodes.size()];
+    this.splitValue = new double[partitionCount];
+    this.child = new int[partitionCount];
+    this.leaves = (T[]) new NodeBase<?>[leafCount];
+    this.lower = new double[leafCount * dimensions];
+    this.upper = new double[leafCount * dimensions];
+    int nextNode = 1;
+    int nextPartition = 0;
+    int nextLeaf = 0;
+    for (int i = 0; i < nodes.size(); i++)
+    {
+      final T node = nodes.get(i);
+      final MetricRule rule = (MetricRule) structures.get(i).rule;
+      if (null == rule)
+      {
+        this.splitDimension[i] = -1;
+        this.offset[i] = nextLeaf;
+        this.leaves[nextLeaf] = node;
+        final DoubleVolume region = (DoubleVolume) node.getRoutingRegion();
+        for (int d = 0; d < dimensions; d++)
+        {
+          final DoubleRange range = region.get(d);
+          this.lower[nextLeaf * dimensions + d] = range.from;
+          this.upper[nextLeaf * dimensions + d] = range.to;
+        }
+        nextLeaf++;
+        continue;
+      }
+      this.splitDimension[i] = ((DimensionMetric) rule.metric).dimension;
+      this.offset[i] = nextPartition;
+      final List<T> children = structures.get(i).children;
+      this.partitions[i] = children.size();
+      for (int c = 0; c < children.size(); c++)
+      {
+        this.splitValue[nextPartition] = c < rule.splitValue.length ? rule.splitValue[c] : Double.NaN;
+        this.child[nextPartition] = null == children.get(c) ? -1 : nextNode++;
+        nextPartition++;
+      }
+    }
+  }
+
+  /**
+   * The leaf containing the point, or null
+   */
+  T getLeaf(final double[] point)
+  {
+    int node = 0;
+    int dimension;
+    while (0 <= (dimension = this.splitDimension[node]))
+    {
+      final double value = point[dimension];
+      int partition = this.offset[node];
+      final int last = partition + this.partitions[node] - 1;
+      while (partition < last && !(value < this.splitValue[partition]))
+      {
+        partition++;
+      }
+      node = this.child[partition];
+      if (0 > node)
+      {
+        return null;
+      }
+    }
+    final int leaf = this.offset[node];
+    final int bounds = leaf * this.dimensions;
+    for (int d = 0; d < this.dimensions; d++)
+    {
+      final double value = point[d];
+      if (this.lower[bounds + d] > value || this.upper[bounds + d] <= value)
+      {
+        return null;
+      }
+    }
+    return this.leaves[leaf];
+  }
+
+}
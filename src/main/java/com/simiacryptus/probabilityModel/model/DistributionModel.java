@@ -1,262 +1,933 @@
-package com.simiacryptus.probabilityModel.model;
-
-import com.simiacryptus.data.DoubleRange;
-import com.simiacryptus.data.VolumeMetric;
-import com.simiacryptus.probabilityModel.rules.MetricRule;
-import com.simiacryptus.probabilityModel.rules.PartitionRule;
-import com.simiacryptus.probabilityModel.rules.RuleCrossProduct;
-import com.simiacryptus.probabilityModel.rules.metrics.DimensionMetric;
-import com.simiacryptus.probabilityModel.visitors.NodeVisitor;
-import com.simiacryptus.probabilityModel.volume.DoubleVolume;
-import com.simiacryptus.probabilityModel.volume.SpacialVolume;
-
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-
-public abstract class DistributionModel<T extends NodeBase<T>>
-{
-  public static final class AccumulateWeights extends NodeVisitor<AccumulateWeights, ScalarNode>
-  {
-    
-    @Override
-    protected void visitEnd(ScalarNode node)
-    {
-      final List<ScalarNode> children = node.getChildren();
-      if (null != children && 0 < children.size())
-      {
-        double weight = 0;
-        for (ScalarNode c : children)
-        {
-          if (null != c) weight += c.getWeight();
-        }
-        node.setWeight(weight);
-      }
-      super.visitEnd(node);
-    }
-    
-  }
-  
-  public interface BinaryNodeFunction
-  {
-    double evaluate(double left, double right, VolumeMetric volume);
-  }
-  
-  public interface ProjectionNodeFunction
-  {
-    double evaluate(ScalarNode... nodes);
-  }
-  
-  static ScalarNode extractProjectionTree(final HashSet<Integer> dimensions, final NodeBase<?> subtree)
-  {
-    DoubleVolume region = new DoubleVolume(subtree.getRegion().getBounds());
-    for (int d : dimensions)
-    {
-      region.set(d, DoubleRange.UNBOUNDED);
-    }
-    if (0 == subtree.getChildren().size())
-    {
-      return new ScalarNode(region);
-    }
-    final MetricRule rule = (MetricRule) subtree.getRule();
-    final int dimension = ((DimensionMetric) rule.metric).dimension;
-    ScalarNode projectedNode;
-    if (dimensions.contains(dimension))
-    {
-      projectedNode = null;
-      for (NodeBase<?> child : subtree.getChildren())
-      {
-        final ScalarNode childProjection = extractProjectionTree(dimensions, child);
-        if (null == projectedNode)
-        {
-          projectedNode = childProjection;
-        }
-        else
-        {
-          projectedNode = evaluate(new BinaryNodeFunction() {
-            @Override
-            public double evaluate(double left, double right, VolumeMetric volume)
-            {
-              return 0;
-            }
-          }, projectedNode, childProjection);
-        }
-      }
-    }
-    else
-    {
-      projectedNode = new ScalarNode(region);
-      projectedNode.setRule(rule);
-      for (NodeBase<?> child : subtree.getChildren())
-      {
-        final ScalarNode childProjection = extractProjectionTree(dimensions, child);
-        projectedNode.addChild(childProjection);
-      }
-    }
-    return projectedNode;
-  }
-
-  static ScalarNode evaluate(final BinaryNodeFunction f, final NodeBase<?> left, final NodeBase<?> right)
-  {
-    final SpacialVolume region = left.getRegion().union(right.getRegion());
-    final ScalarNode resultNode = new ScalarNode((ScalarNode)null, region);
-    if (left.getChildren().size() == 0 && right.getChildren().size() == 0)
-    {
-      resultNode.setWeight(f.evaluate(left.getWeight(), right.getWeight(), region.getVolume()));
-      return resultNode;
-    }
-    else
-    {
-      double newWeight = 0;
-      final List<NodeBase<?>> rightNodes = new ArrayList<NodeBase<?>>();
-      final List<NodeBase<?>> leftNodes = new ArrayList<NodeBase<?>>();
-      PartitionRule leftRule;
-      PartitionRule rightRule;
-      if (left.getChildren().size() == 0)
-      {
-        rightNodes.addAll(right.getChildren());
-        leftNodes.add(left);
-        leftRule = null;
-        rightRule = right.getRule();
-      }
-      else if (right.getChildren().size() == 0)
-      {
-        rightNodes.add(right);
-        leftNodes.addAll(left.getChildren());
-        leftRule = left.getRule();
-        rightRule = null;
-      }
-      else
-      {
-        rightNodes.addAll(right.getChildren());
-        leftNodes.addAll(left.getChildren());
-        leftRule = left.getRule();
-        rightRule = right.getRule();
-      }
-      resultNode.setRule(RuleCrossProduct.create(leftRule, rightRule));
-      for (NodeBase<?> leftNode : leftNodes)
-      {
-        for (NodeBase<?> rightNode : rightNodes)
-        {
-          if (null == leftNode || null == rightNode)
-          {
-            resultNode.addChild(null);
-            continue;
-          }
-          final SpacialVolume intersect = leftNode.getRegion().intersect(rightNode.getRegion());
-          if (null == intersect)
-          {
-            resultNode.addChild(null);
-            continue;
-          }
-          ScalarNode leftSubnode = new ScalarNode((ScalarNode)null, leftNode);
-          leftSubnode.copyChildren(leftNode);
-          leftSubnode = leftSubnode.slice(intersect.getBounds());
-          ScalarNode rightSubnode = new ScalarNode((ScalarNode)null, rightNode);
-          rightSubnode.copyChildren(rightNode);
-          rightSubnode = rightSubnode.slice(intersect.getBounds());
-          ScalarNode resultSubnode = evaluate(f, leftSubnode, rightSubnode);
-          resultNode.addChild(resultSubnode);
-          newWeight += resultSubnode.getWeight();
-        }
-      }
-      resultNode.setWeight(newWeight);
-      return resultNode;
-    }
-  }
-  
-  protected volatile T root;
-  
-  public DistributionModel()
-  {
-    super();
-  }
-  
-  protected abstract T constructRoot();
-  
-  public ScalarModel copy()
-  {
-    final T root = this.getRoot();
-    final ScalarModel scalarModel = new ScalarModel(root);
-    scalarModel.getRoot().copyChildren(root);
-    return scalarModel;
-  }
-  
-  public ScalarModel evaluate(final BinaryNodeFunction f, final DistributionModel<?> right)
-  {
-    final ScalarModel scalarModel = new ScalarModel(null);
-    scalarModel.setRoot(evaluate(f, this.getRoot(), right.getRoot()));
-    return scalarModel;
-  }
-  
-  public int getNodeCount()
-  {
-    return this.getRoot().getNodeCount();
-  }
-  
-  public SpacialVolume getRegion()
-  {
-    return this.getRoot().getRegion();
-  }
-  
-  public final T getRoot()
-  {
-    if (null == this.root)
-    {
-      synchronized (this)
-      {
-        if (null == this.root)
-        {
-          this.root = this.constructRoot();
-        }
-      }
-    }
-    return this.root;
-  }
-  
-  public double getWeight()
-  {
-    return this.getRoot().getWeight();
-  }
-  
-  public ScalarModel slice(final DoubleVolume range)
-  {
-    final ScalarModel scalarModel = copy();
-    final ScalarNode root = scalarModel.getRoot();
-    ScalarNode newRoot = root.slice(range);
-    scalarModel.setRoot(newRoot);
-    return scalarModel;
-  }
-  
-  public ScalarModel project(final ProjectionNodeFunction fn, final int... dimensions)
-  {
-    final HashSet<Integer> set = new HashSet<Integer>();
-    for (int d : dimensions)
-      set.add(d);
-    final ScalarNode projectionTree = extractProjectionTree(set, getRoot());
-    for (ScalarNode leaf : NodeUtil.getLeaves(projectionTree))
-    {
-      final ScalarNode[] leaves = NodeUtil.getLeaves(slice(leaf.getRegion().getBounds()).getRoot()).toArray(new ScalarNode[] {});
-      leaf.setWeight(fn.evaluate(leaves));
-    }
-    new AccumulateWeights().visit(projectionTree, Integer.MAX_VALUE);
-    final ScalarModel projectedModel = new ScalarModel(null);
-    projectedModel.setRoot(projectionTree);
-    return projectedModel;
-  }
-
-  public double getDensity(double[] p)
-  {
-    final T leaf = getRoot().getLeaf(p);
-    final VolumeMetric volume = leaf.getVolumeFraction();
-    if(0 == volume.value) return 0;
-//    if(volume.dimension < getRegion().dimensions()) return 0;
-    return getWeightFraction(leaf) / volume.value;
-  }
-
-  private double getWeightFraction(final T leaf)
-  {
-    return leaf.getWeight() / getRoot().getWeight();
-  }
-  
+package com.simiacryptus.probabilityModel.model;
+
+import com.simiacryptus.data.DoubleRange;
+import com.simiacryptus.data.VolumeMetric;
+import com.simiacryptus.probabilityModel.rules.MetricRule;
+import com.simiacryptus.probabilityModel.rules.PartitionRule;
+import com.simiacryptus.probabilityModel.rules.metrics.DimensionMetric;
+import com.simiacryptus.probabilityModel.rules.metrics.Metric;
+import com.simiacryptus.probabilityModel.visitors.NodeVisitor;
+import com.simiacryptus.probabilityModel.volume.DoubleVolume;
+import com.simiacryptus.probabilityModel.volume.SpacialVolume;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.stream.IntStream;
+
+public abstract class DistributionModel<T extends NodeBase<T>>
+{
+  public static final class AccumulateWeights extends NodeVisitor<AccumulateWeights, ScalarNode>
+  {
+    
+    @Override
+    protected void visitEnd(ScalarNode node)
+    {
+      final List<ScalarNode> children = node.getChildren();
+      if (null != children && 0 < children.size())
+      {
+        double weight = 0;
+        for (ScalarNode c : children)
+        {
+          if (null != c) weight += c.getWeight();
+        }
+        node.setWeight(weight);
+      }
+      super.visitEnd(node);
+    }
+    
+  }
+  
+  public interface BinaryNodeFunction
+  {
+    double evaluate(double left, double right, VolumeMetric volume);
+  }
+  
+  public interface ProjectionNodeFunction
+  {
+    double evaluate(ScalarNode... nodes);
+  }
+  
+  static ScalarNode extractProjectionTree(final HashSet<Integer> dimensions, final NodeBase<?> subtree)
+  {
+    DoubleVolume region = new DoubleVolume(subtree.getRegion().getBounds());
+    for (int d : dimensions)
+    {
+      region.set(d, DoubleRange.UNBOUNDED);
+    }
+    if (0 == subtree.getChildren().size())
+    {
+      return new ScalarNode(region);
+    }
+    final MetricRule rule = (MetricRule) subtree.getRule();
+    final int dimension = ((DimensionMetric) rule.metric).dimension;
+    ScalarNode projectedNode;
+    if (dimensions.contains(dimension))
+    {
+      projectedNode = null;
+      for (NodeBase<?> child : subtree.getChildren())
+      {
+        if (null == child)
+        {
+          continue;
+        }
+        final ScalarNode childProjection = extractProjectionTree(dimensions, child);
+        if (null == projectedNode)
+        {
+          projectedNode = childProjection;
+        }
+        else
+        {
+          projectedNode = overlay(projectedNode, childProjection, projectedNode.getRegion().union(childProjection.getRegion()));
+        }
+      }
+    }
+    else
+    {
+      projectedNode = new ScalarNode(region);
+      projectedNode.setRule(rule);
+      for (NodeBase<?> child : subtree.getChildren())
+      {
+        final ScalarNode childProjection = extractProjectionTree(dimensions, child);
+        projectedNode.addChild(childProjection);
+      }
+    }
+    return projectedNode;
+  }
+
+  /**
+   * Partitions region into the intersections of the leaves of two projections, as evaluate() would, but by splitting
+   * each of left's partitions by the part of right that overlaps it rather than by crossing their rules. Only the
+   * shapes are built; weights are left at zero.
+   */
+  private static ScalarNode overlay(final ScalarNode left, final ScalarNode right, final SpacialVolume region)
+  {
+    if (null == left.getRule())
+    {
+      if (null == right.getRule())
+      {
+        return new ScalarNode(region);
+      }
+      return overlay(right, left, region);
+    }
+    final List<ScalarNode> children = new ArrayList<ScalarNode>();
+    ScalarNode last = null;
+    int childCount = 0;
+    for (final ScalarNode child : left.getChildren())
+    {
+      final ScalarNode clipped = null == child ? null : clip(right, child.getRegion());
+      final SpacialVolume intersect = null == clipped ? null : child.getRegion().intersect(clipped.getRegion());
+      final ScalarNode newChild = null == intersect ? null : overlay(child, clipped, intersect);
+      if (null != newChild)
+      {
+        last = newChild;
+        childCount++;
+      }
+      children.add(newChild);
+    }
+    // The rest of the region lies outside the other projection, so the only child covers it
+    if (1 == childCount)
+    {
+      return last;
+    }
+    final ScalarNode node = new ScalarNode(region);
+    node.setStructure(left.getRule(), children);
+    return node;
+  }
+  
+  /**
+   * The deepest node of the subtree that holds every part of it overlapping the region, or null if none does
+   */
+  private static ScalarNode clip(final ScalarNode subtree, final SpacialVolume region)
+  {
+    if (!subtree.getRegion().intersects(region))
+    {
+      return null;
+    }
+    ScalarNode node = subtree;
+    while (null != node.getRule())
+    {
+      ScalarNode only = null;
+      int count = 0;
+      for (final ScalarNode child : node.getChildren())
+      {
+        if (null != child && child.getRegion().intersects(region))
+        {
+          only = child;
+          count++;
+        }
+      }
+      if (0 == count)
+      {
+        return null;
+      }
+      if (1 < count)
+      {
+        break;
+      }
+      node = only;
+    }
+    return node;
+  }
+  
+  static ScalarNode evaluate(final BinaryNodeFunction f, final NodeBase<?> left, final NodeBase<?> right)
+  {
+    final SpacialVolume region = left.getRegion().union(right.getRegion());
+    final SpacialVolume intersect = left.getRegion().intersect(right.getRegion());
+    if ((left.getChildren().size() == 0 && right.getChildren().size() == 0) || null == intersect)
+    {
+      final ScalarNode resultNode = new ScalarNode((ScalarNode)null, region);
+      resultNode.setWeight(null == intersect ? 0 : f.evaluate(left.getWeight(), right.getWeight(), region.getVolume()));
+      return resultNode;
+    }
+    return evaluate(f, left, right, intersect, region);
+  }
+  
+  /**
+   * Evaluates the part of both trees within the box, without copying either: each tree is followed down to the
+   * node the box cuts, and the result is split by whichever of those nodes has children in the box. Where both split
+   * on the same dimension their split values are merged into one rule, so only non-empty intersections get a node.
+   * Leaves the box cuts are weighed as slicing them to it would.
+   */
+  private static ScalarNode evaluate(final BinaryNodeFunction f, final NodeBase<?> left, final NodeBase<?> right, final SpacialVolume box, final SpacialVolume region)
+  {
+    final NodeBase<?> l = descend(left, box);
+    final NodeBase<?> r = descend(right, box);
+    final SpacialVolume nodeRegion = null != region ? region : box.intersect(l.getRegion()).union(box.intersect(r.getRegion()));
+    final ScalarNode resultNode = new ScalarNode((ScalarNode)null, nodeRegion);
+    final boolean leftSplit = isSplit(l, box);
+    final boolean rightSplit = isSplit(r, box);
+    if (!leftSplit && !rightSplit)
+    {
+      resultNode.setWeight(f.evaluate(getWeight(l, box), getWeight(r, box), nodeRegion.getVolume()));
+      return resultNode;
+    }
+    final List<ScalarNode> children = new ArrayList<ScalarNode>();
+    final PartitionRule rule;
+    final DimensionMetric metric = leftSplit && rightSplit ? getSharedDimension(l.getRule(), r.getRule()) : null;
+    if (null != metric)
+    {
+      final MetricRule leftRule = (MetricRule) l.getRule();
+      final MetricRule rightRule = (MetricRule) r.getRule();
+      final DoubleRange extent = box.getRange(metric.dimension);
+      final MetricRule mergedRule = new MetricRule(leftRule.range, metric, mergeSplits(leftRule.splitValue, rightRule.splitValue, extent));
+      for (int i = 0; i < mergedRule.getPartitions(); i++)
+      {
+        final double value = Math.max(mergedRule.getMetricRange(i).from, extent.from);
+        final NodeBase<?> leftChild = l.getChildren().get(getPartition(leftRule.splitValue, value));
+        final NodeBase<?> rightChild = r.getChildren().get(getPartition(rightRule.splitValue, value));
+        final SpacialVolume childBox = null == leftChild || null == rightChild ? null : intersect(intersect(box, leftChild.getRegion()), rightChild.getRegion());
+        children.add(null == childBox ? null : evaluate(f, leftChild, rightChild, childBox, null));
+      }
+      rule = mergedRule;
+    }
+    else
+    {
+      final NodeBase<?> split = leftSplit ? l : r;
+      for (final NodeBase<?> child : split.getChildren())
+      {
+        final SpacialVolume childBox = null == child ? null : intersect(box, child.getRegion());
+        children.add(null == childBox ? null : leftSplit ? evaluate(f, child, r, childBox, null) : evaluate(f, l, child, childBox, null));
+      }
+      rule = split.getRule();
+    }
+    double newWeight = 0;
+    for (final ScalarNode child : children)
+    {
+      if (null != child)
+      {
+        newWeight += child.getWeight();
+      }
+    }
+    resultNode.setStructure(rule, children);
+    resultNode.setWeight(newWeight);
+    return resultNode;
+  }
+  
+  /**
+   * Follows the node's only child overlapping the box for as long as it has just one, as slicing it to the box would
+   */
+  private static NodeBase<?> descend(final NodeBase<?> node, final SpacialVolume box)
+  {
+    NodeBase<?> cut = node;
+    while (true)
+    {
+      NodeBase<?> only = null;
+      for (final NodeBase<?> child : cut.getChildren())
+      {
+        if (null != child && child.getRegion().intersects(box))
+        {
+          if (null != only)
+          {
+            return cut;
+          }
+          only = child;
+        }
+      }
+      if (null == only)
+      {
+        return cut;
+      }
+      cut = only;
+    }
+  }
+  
+  private static boolean isSplit(final NodeBase<?> node, final SpacialVolume box)
+  {
+    for (final NodeBase<?> child : node.getChildren())
+    {
+      if (null != child && child.getRegion().intersects(box))
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+  
+  /**
+   * The node's weight within the box, as slicing it to the box would pro-rate it
+   */
+  private static double getWeight(final NodeBase<?> node, final SpacialVolume box)
+  {
+    final SpacialVolume region = node.getRegion();
+    if (!(box instanceof DoubleVolume))
+    {
+      return node.getWeight() * box.intersect(region).getVolume().divide(region.getVolume()).value;
+    }
+    final DoubleVolume bounds = region.getBounds();
+    if (encloses((DoubleVolume) box, bounds))
+    {
+      return node.getWeight();
+    }
+    return node.getWeight() * getFraction(region, bounds, (DoubleVolume) box);
+  }
+  
+  private static SpacialVolume intersect(final SpacialVolume box, final SpacialVolume region)
+  {
+    return null == box || !box.intersects(region) ? null : box.intersect(region);
+  }
+  
+  /**
+   * The metric both rules split on, if both split on the same single dimension
+   */
+  private static DimensionMetric getSharedDimension(final PartitionRule left, final PartitionRule right)
+  {
+    if (!(left instanceof MetricRule) || !(right instanceof MetricRule))
+    {
+      return null;
+    }
+    final Metric leftMetric = ((MetricRule) left).metric;
+    final Metric rightMetric = ((MetricRule) right).metric;
+    if (!(leftMetric instanceof DimensionMetric) || !(rightMetric instanceof DimensionMetric))
+    {
+      return null;
+    }
+    return ((DimensionMetric) leftMetric).dimension == ((DimensionMetric) rightMetric).dimension ? (DimensionMetric) leftMetric : null;
+  }
+  
+  /**
+   * The distinct split values of both sorted arrays that fall strictly within the extent, in order
+   */
+  private static double[] mergeSplits(final double[] left, final double[] right, final DoubleRange extent)
+  {
+    final double[] merged = new double[left.length + right.length];
+    int count = 0;
+    int i = 0;
+    int j = 0;
+    while (i < left.length || j < right.length)
+    {
+      final double value = j >= right.length || (i < left.length && left[i] <= right[j]) ? left[i++] : right[j++];
+      if (value > extent.from && value < extent.to && (0 == count || merged[count - 1] != value))
+      {
+        merged[count++] = value;
+      }
+    }
+    return Arrays.copyOf(merged, count);
+  }
+  
+  /**
+   * The partition a MetricRule with these split values gives the value
+   */
+  private static int getPartition(final double[] splitValue, final double value)
+  {
+    int partition = 0;
+    while (partition < splitValue.length && !(value < splitValue[partition]))
+    {
+      partition++;
+    }
+    return partition;
+  }
+  
+  protected volatile T root;
+  // Bumped on every change to the tree's structure, which invalidates the compiled lookup structure
+  private final AtomicInteger structureVersion = new AtomicInteger();
+  // Bumped on every change to the tree's structure or any node's region, which invalidates the nodes' cached volumes
+  // and the cached marginals' bounds
+  private final AtomicInteger regionVersion = new AtomicInteger();
+  // Bumped on every change to the tree's structure or regions, and whenever any weight changes after the root's
+  // weight was read, which invalidates the cached alias table and the cached marginals' weights
+  private final AtomicInteger weightVersion = new AtomicInteger();
+  private volatile CompiledTree<T> compiledTree;
+  private volatile int compiledVersion = -1;
+  // The structure version last seen stale by a query; a rebuild starts only once a second query sees the same one
+  private volatile int staleVersion = -1;
+  private final AtomicBoolean isCompiling = new AtomicBoolean();
+  private final Map<Integer, Marginal> marginals = new ConcurrentHashMap<Integer, Marginal>();
+  private volatile AliasTable<T> aliasTable;
+  
+  public DistributionModel()
+  {
+    super();
+  }
+  
+  protected abstract T constructRoot();
+  
+  public ScalarModel copy()
+  {
+    final T root = this.getRoot();
+    final ScalarModel scalarModel = new ScalarModel(root);
+    scalarModel.getRoot().copyChildren(root);
+    return scalarModel;
+  }
+  
+  public ScalarModel evaluate(final BinaryNodeFunction f, final DistributionModel<?> right)
+  {
+    final ScalarModel scalarModel = new ScalarModel(null);
+    scalarModel.setRoot(evaluate(f, this.getRoot(), right.getRoot()));
+    return scalarModel;
+  }
+  
+  public int getNodeCount()
+  {
+    return this.getRoot().getNodeCount();
+  }
+  
+  public SpacialVolume getRegion()
+  {
+    return this.getRoot().getRegion();
+  }
+  
+  public final T getRoot()
+  {
+    if (null == this.root)
+    {
+      synchronized (this)
+      {
+        if (null == this.root)
+        {
+          this.root = this.constructRoot();
+        }
+      }
+    }
+    return this.root;
+  }
+  
+  public double getWeight()
+  {
+    return this.getRoot().getWeight();
+  }
+  
+  /**
+   * A view of the model within the range. Only the nodes the range cuts are copied; the rest are copied from this
+   * model as they are first read, so this model should not change while the view is in use.
+   */
+  public ScalarModel slice(final DoubleVolume range)
+  {
+    final ScalarModel scalarModel = new ScalarModel(null);
+    scalarModel.setRoot(ScalarNode.slice(this.getRoot(), range));
+    return scalarModel;
+  }
+  
+  /**
+   * The weight within the box, as slice(box).getWeight() would give it, but without copying the tree: subtrees inside
+   * the box count whole, subtrees outside it are skipped, and leaves it cuts are pro-rated by volume.
+   */
+  public double getMass(final DoubleVolume box)
+  {
+    final T root = this.getRoot();
+    if (!root.getRegion().intersects(box))
+    {
+      return 0;
+    }
+    return getMass(root, box);
+  }
+  
+  private static double getMass(final NodeBase<?> node, final DoubleVolume box)
+  {
+    final SpacialVolume region = node.getRegion();
+    final DoubleVolume bounds = region.getBounds();
+    if (encloses(box, bounds))
+    {
+      return node.getWeight();
+    }
+    double mass = 0;
+    int intersecting = 0;
+    for (final NodeBase<?> child : node.getChildren())
+    {
+      if (null != child && child.getRegion().intersects(box))
+      {
+        mass += getMass(child, box);
+        intersecting++;
+      }
+    }
+    if (0 < intersecting)
+    {
+      return mass;
+    }
+    return node.getWeight() * getFraction(region, bounds, box);
+  }
+  
+  /**
+   * The fraction of region, whose bounds are given, that lies within box, as slice() measures it
+   */
+  private static double getFraction(final SpacialVolume region, final DoubleVolume bounds, final DoubleVolume box)
+  {
+    if (region instanceof DoubleVolume)
+    {
+      return overlap(bounds, box);
+    }
+    return box.intersect(region).getVolume().divide(region.getVolume()).value;
+  }
+  
+  static boolean encloses(final DoubleVolume box, final DoubleVolume bounds)
+  {
+    for (int d = 0; d < box.size(); d++)
+    {
+      final DoubleRange outer = box.get(d);
+      final DoubleRange inner = bounds.get(d);
+      if (outer.from > inner.from || outer.to < inner.to)
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  /**
+   * The volume of region's intersection with box over the volume of region, both measured as DoubleVolume.getVolume()
+   * does, without building the intersection
+   */
+  private static double overlap(final DoubleVolume region, final DoubleVolume box)
+  {
+    double overlap = 1;
+    double volume = 1;
+    for (int d = 0; d < region.size(); d++)
+    {
+      final DoubleRange r = region.get(d);
+      final DoubleRange b = box.get(d);
+      overlap *= measure(Math.max(r.from, b.from), Math.min(r.to, b.to));
+      volume *= measure(r.from, r.to);
+    }
+    return Math.min(overlap, Double.MAX_VALUE) / Math.min(volume, Double.MAX_VALUE);
+  }
+  
+  private static double measure(final double from, final double to)
+  {
+    final double size = to - from;
+    if (Math.abs(from) == Double.MAX_VALUE || Math.abs(to) == Double.MAX_VALUE || 0 == size || Double.isInfinite(size))
+    {
+      return 1;
+    }
+    return size;
+  }
+  
+  public ScalarModel project(final ProjectionNodeFunction fn, final int... dimensions)
+  {
+    final ScalarNode projectionTree = extractProjectionTree(getDimensionSet(dimensions), getRoot());
+    final Map<ScalarNode, List<ScalarNode>> pieces = new IdentityHashMap<ScalarNode, List<ScalarNode>>();
+    for (ScalarNode leaf : NodeUtil.getLeaves(projectionTree))
+    {
+      pieces.put(leaf, new ArrayList<ScalarNode>());
+    }
+    marginalize(getRoot(), Collections.singletonList(projectionTree), (projectedLeaf, leaf) -> {
+      final DoubleVolume box = projectedLeaf.getRegion().getBounds();
+      final SpacialVolume region = leaf.getRegion();
+      final DoubleVolume bounds = region.getBounds();
+      final ScalarNode piece;
+      if (encloses(box, bounds))
+      {
+        piece = new ScalarNode((ScalarNode) null, leaf);
+      }
+      else
+      {
+        piece = new ScalarNode(box.intersect(region));
+        piece.setWeight(leaf.getWeight() * getFraction(region, bounds, box));
+      }
+      pieces.get(projectedLeaf).add(piece);
+    });
+    for (Map.Entry<ScalarNode, List<ScalarNode>> entry : pieces.entrySet())
+    {
+      entry.getKey().setWeight(fn.evaluate(entry.getValue().toArray(new ScalarNode[] {})));
+    }
+    return toProjectedModel(projectionTree);
+  }
+  
+  /**
+   * The marginal over the dimensions not given: the same as projecting with a function that sums the leaves'
+   * weights, but each leaf's mass is added straight into the projected leaves without building the pieces.
+   */
+  public ScalarModel project(final int... dimensions)
+  {
+    final ScalarNode projectionTree = extractProjectionTree(getDimensionSet(dimensions), getRoot());
+    marginalize(getRoot(), Collections.singletonList(projectionTree), (projectedLeaf, leaf) -> {
+      final DoubleVolume box = projectedLeaf.getRegion().getBounds();
+      final SpacialVolume region = leaf.getRegion();
+      final DoubleVolume bounds = region.getBounds();
+      final double mass = encloses(box, bounds) ? leaf.getWeight() : leaf.getWeight() * getFraction(region, bounds, box);
+      projectedLeaf.setWeight(projectedLeaf.getWeight() + mass);
+    });
+    return toProjectedModel(projectionTree);
+  }
+  
+  private static HashSet<Integer> getDimensionSet(final int... dimensions)
+  {
+    final HashSet<Integer> set = new HashSet<Integer>();
+    for (int d : dimensions)
+      set.add(d);
+    return set;
+  }
+  
+  private static ScalarModel toProjectedModel(final ScalarNode projectionTree)
+  {
+    new AccumulateWeights().visit(projectionTree, Integer.MAX_VALUE);
+    final ScalarModel projectedModel = new ScalarModel(null);
+    projectedModel.setRoot(projectionTree);
+    return projectedModel;
+  }
+
+  /**
+   * Passes each projected leaf, with each leaf of the tree under node that overlaps it, to overlap in the tree's
+   * order; the leaves slice(projected leaf's bounds) would cut. The projected subtrees are narrowed to those each
+   * node overlaps on the way down, so each leaf only meets the projected leaves near it.
+   */
+  private static void marginalize(final NodeBase<?> node, final List<ScalarNode> projected, final BiConsumer<ScalarNode, NodeBase<?>> overlap)
+  {
+    final SpacialVolume region = node.getRegion();
+    final boolean leaf = null == node.getRule();
+    final List<ScalarNode> overlapping = new ArrayList<ScalarNode>();
+    for (final ScalarNode projectedNode : projected)
+    {
+      if (region.intersects(projectedNode.getRegion()))
+      {
+        narrow(projectedNode, region, leaf, overlapping);
+      }
+    }
+    if (overlapping.isEmpty())
+    {
+      return;
+    }
+    if (leaf)
+    {
+      for (final ScalarNode projectedLeaf : overlapping)
+      {
+        overlap.accept(projectedLeaf, node);
+      }
+      return;
+    }
+    for (final NodeBase<?> child : node.getChildren())
+    {
+      if (null != child)
+      {
+        marginalize(child, overlapping, overlap);
+      }
+    }
+  }
+  
+  /**
+   * Adds the parts of a projected subtree overlapping the region that overlap it: its leaves if toLeaves is set,
+   * otherwise the shallowest nodes with more than one child overlapping it
+   */
+  private static void narrow(final ScalarNode projected, final SpacialVolume region, final boolean toLeaves, final List<ScalarNode> overlapping)
+  {
+    if (null == projected.getRule())
+    {
+      overlapping.add(projected);
+      return;
+    }
+    final List<ScalarNode> children = projected.getChildren();
+    if (!toLeaves)
+    {
+      int count = 0;
+      for (final ScalarNode child : children)
+      {
+        if (null != child && region.intersects(child.getRegion()))
+        {
+          count++;
+        }
+      }
+      if (1 < count)
+      {
+        overlapping.add(projected);
+        return;
+      }
+    }
+    for (final ScalarNode child : children)
+    {
+      if (null != child && region.intersects(child.getRegion()))
+      {
+        narrow(child, region, toLeaves, overlapping);
+      }
+    }
+  }
+  
+  /**
+   * Returns the leaf containing the point, or null. Axis-aligned trees are searched through a compiled copy of their
+   * structure. While that copy is stale the search walks the nodes instead, and the copy is rebuilt in the background
+   * once the structure has stopped changing between queries, so a query never waits on a rebuild.
+   */
+  public T getLeaf(final double[] point)
+  {
+    final int version = this.structureVersion.get();
+    final CompiledTree<T> compiledTree = this.compiledTree;
+    if (null != compiledTree && version == compiledTree.version)
+    {
+      return compiledTree.getLeaf(point);
+    }
+    if (version != this.compiledVersion)
+    {
+      this.requestCompile(version);
+    }
+    return this.getRoot().getLeaf(point);
+  }
+  
+  private void requestCompile(final int version)
+  {
+    if (version != this.staleVersion)
+    {
+      this.staleVersion = version;
+      return;
+    }
+    if (!this.isCompiling.compareAndSet(false, true))
+    {
+      return;
+    }
+    ForkJoinPool.commonPool().execute(() -> {
+      try
+      {
+        // The version is bumped after each change is published, so a tree compiled from this version or later is never
+        // labelled newer than it is
+        final int current = this.structureVersion.get();
+        if (current != this.compiledVersion)
+        {
+          this.compiledTree = CompiledTree.compile(this.getRoot(), current);
+          this.compiledVersion = current;
+        }
+      }
+      finally
+      {
+        this.isCompiling.set(false);
+      }
+    });
+  }
+  
+  void structureChanged()
+  {
+    this.structureVersion.incrementAndGet();
+    this.regionVersion.incrementAndGet();
+    this.weightVersion.incrementAndGet();
+  }
+  
+  void regionChanged()
+  {
+    this.regionVersion.incrementAndGet();
+    this.weightVersion.incrementAndGet();
+  }
+  
+  void weightChanged()
+  {
+    this.weightVersion.incrementAndGet();
+  }
+  
+  int getStructureVersion()
+  {
+    return this.structureVersion.get();
+  }
+  
+  int getRegionVersion()
+  {
+    return this.regionVersion.get();
+  }
+
+  /**
+   * The marginal probability that the point's coordinate in the dimension lies below the value, with each leaf's
+   * weight spread evenly across its extent in the dimension. Answered by a binary search over the dimension's cached
+   * marginal, which is rebuilt after any region changes and only updated where weights change otherwise.
+   */
+  public double cdf(final int dimension, final double value)
+  {
+    return this.getMarginal(dimension).cdf(value);
+  }
+  
+  /**
+   * The least value of the dimension's coordinate with at least a fraction p of the model's weight at or below it;
+   * the inverse of cdf(), and NaN for an empty model
+   */
+  public double quantile(final int dimension, final double p)
+  {
+    if (!(0 <= p && p <= 1))
+    {
+      throw new IllegalArgumentException(String.format("Not a probability: %s", p));
+    }
+    return this.getMarginal(dimension).quantile(p);
+  }
+  
+  private Marginal getMarginal(final int dimension)
+  {
+    final T root = this.getRoot();
+    if (0 > dimension || dimension >= root.getRegion().dimensions())
+    {
+      throw new IllegalArgumentException(String.format("No dimension %s", dimension));
+    }
+    final int regionVersion = this.regionVersion.get();
+    final int weightVersion = this.weightVersion.get();
+    Marginal marginal = this.marginals.get(dimension);
+    if (null == marginal || regionVersion != marginal.regionVersion)
+    {
+      // Bring the cached subtree weights up to date, so that any later change bumps the version
+      root.getWeight();
+      marginal = Marginal.build(root, dimension, regionVersion, weightVersion);
+      this.marginals.put(dimension, marginal);
+    }
+    else if (weightVersion != marginal.weightVersion)
+    {
+      root.getWeight();
+      // The leaves and their bounds are the same, so only the leaves whose weight changed need updating
+      marginal = marginal.reweigh(weightVersion);
+      this.marginals.put(dimension, marginal);
+    }
+    return marginal;
+  }
+  
+  /**
+   * Draws a leaf with probability proportional to its weight, in constant time and without allocating, from an alias
+   * table over the leaves that is rebuilt after the model changes.
+   */
+  public T sampleLeaf(final Random random)
+  {
+    return this.getAliasTable().sample(random);
+  }
+  
+  /**
+   * Draws a leaf as sampleLeaf(Random) does, from a stream that each thread can split off for itself
+   */
+  public T sampleLeaf(final SplittableRandom random)
+  {
+    return this.getAliasTable().sample(random);
+  }
+  
+  private AliasTable<T> getAliasTable()
+  {
+    final int version = this.weightVersion.get();
+    AliasTable<T> aliasTable = this.aliasTable;
+    if (null == aliasTable || version != aliasTable.version)
+    {
+      final T root = this.getRoot();
+      // Bring the cached subtree weights up to date, so that any later change bumps the version
+      root.getWeight();
+      aliasTable = AliasTable.build(root, version);
+      this.aliasTable = aliasTable;
+    }
+    return aliasTable;
+  }
+  
+  /**
+   * The density of the dimension's coordinate at the point given its other coordinates: the density at the point over
+   * its integral along the line through the point parallel to the dimension's axis. Only the leaves that line crosses
+   * are visited. 0 outside the model's region.
+   */
+  public double conditionalDensity(final int dimension, final double[] point)
+  {
+    final T root = this.getRoot();
+    if (0 > dimension || dimension >= root.getRegion().dimensions())
+    {
+      throw new IllegalArgumentException(String.format("No dimension %s", dimension));
+    }
+    final double rootWeight = root.getWeight();
+    final double density = getDensity(getLeaf(point), rootWeight);
+    if (0 == density)
+    {
+      return 0;
+    }
+    final double lineMass = getLineMass(root, dimension, point, rootWeight);
+    return 0 < lineMass ? density / lineMass : 0;
+  }
+  
+  /**
+   * The integral of the density along the line through the point parallel to the dimension's axis, within the node
+   */
+  private double getLineMass(final T node, final int dimension, final double[] point, final double rootWeight)
+  {
+    final DoubleVolume bounds = node.getRoutingRegion().getBounds();
+    for (int d = 0; d < point.length; d++)
+    {
+      if (d != dimension && !bounds.get(d).contains(point[d]))
+      {
+        return 0;
+      }
+    }
+    final NodeBase.Structure<T> structure = node.getStructure();
+    if (null == structure.rule)
+    {
+      final DoubleRange range = node.getRegion().getRange(dimension);
+      return getDensity(node, rootWeight) * measure(range.from, range.to);
+    }
+    // An axis-aligned split on another dimension routes the whole line to one child
+    if (structure.rule instanceof MetricRule && ((MetricRule) structure.rule).metric instanceof DimensionMetric
+        && dimension != ((DimensionMetric) ((MetricRule) structure.rule).metric).dimension)
+    {
+      final T child = structure.children.get(structure.rule.evaluate(point));
+      return null == child ? 0 : getLineMass(child, dimension, point, rootWeight);
+    }
+    double mass = 0;
+    for (final T child : structure.children)
+    {
+      if (null != child)
+      {
+        mass += getLineMass(child, dimension, point, rootWeight);
+      }
+    }
+    return mass;
+  }
+
+  /**
+   * The density at the point, or 0 outside the model's region
+   */
+  public double getDensity(double[] p)
+  {
+    return getDensity(getLeaf(p), getRoot().getWeight());
+  }
+  
+  /**
+   * Writes the density at each point into densities, spreading the points across the common fork-join pool
+   */
+  public void getDensity(final double[][] points, final double[] densities)
+  {
+    if (densities.length < points.length)
+    {
+      throw new IllegalArgumentException(String.format("%s densities for %s points", densities.length, points.length));
+    }
+    final double rootWeight = getRoot().getWeight();
+    IntStream.range(0, points.length).parallel().forEach(i -> densities[i] = getDensity(getLeaf(points[i]), rootWeight));
+  }
+
+  private double getDensity(final T leaf, final double rootWeight)
+  {
+    if(null == leaf) return 0;
+    final VolumeMetric volume = leaf.getVolumeFraction();
+    if(0 == volume.value) return 0;
+//    if(volume.dimension < getRegion().dimensions()) return 0;
+    return leaf.getWeight() / rootWeight / volume.value;
+  }
+  
 }
\ No newline at end of file
@@ -0,0 +1,23 @@
+package com.simiacryptus.probabilityModel.model;
+
+/**
+ * An immutable snapshot of a model's rules, regions and weights, for querying once training is done.
+ * It holds no points, point stores or other training state.
+ */
+public final class FrozenModel extends DistributionModel<FrozenNode>
+{
+  // The copy is taken at once, so that later changes to the source don't show through
+  private final FrozenNode copy;
+  
+  FrozenModel(final NodeBase<?> node)
+  {
+    this.copy = new FrozenNode(this, node);
+  }
+  
+  @Override
+  protected FrozenNode constructRoot()
+  {
+    return this.copy;
+  }
+  
+}
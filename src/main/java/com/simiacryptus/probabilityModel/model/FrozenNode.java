@@ -0,0 +1,70 @@
+package com.simiacryptus.probabilityModel.model;
+
+import org.json.JSONException;
+
+import com.simiacryptus.probabilityModel.visitors.JsonConverter;
+import com.simiacryptus.probabilityModel.volume.SpacialVolume;
+
+/**
+ * An immutable copy of a node, holding only its rule, region and weight. The regions are copied, as sampling and
+ * volume estimates change their state; the rules are shared, as they are only evaluated.
+ */
+public final class FrozenNode extends NodeBase<FrozenNode>
+{
+  private final double        weight;
+  // The region points are routed by, when it is wider than the region used for volumes (see PointNode.getRegion)
+  private final SpacialVolume bounds;
+  
+  FrozenNode(final FrozenModel tree, final NodeBase<?> node)
+  {
+    super(tree, node.getRegion().copy());
+    this.weight = node.getWeight();
+    this.bounds = node.getRoutingRegion() == node.getRegion() ? null : node.getRoutingRegion().copy();
+    this.copyChildren(node);
+  }
+  
+  private FrozenNode(final NodeBase<?> node)
+  {
+    super((FrozenNode) null, node.getRegion().copy());
+    this.weight = node.getWeight();
+    this.bounds = node.getRoutingRegion() == node.getRegion() ? null : node.getRoutingRegion().copy();
+    this.copyChildren(node);
+  }
+  
+  private void copyChildren(final NodeBase<?> node)
+  {
+    // One read, so that a concurrent split or collapse can't pair one rule with the other's children
+    final NodeBase.Structure<? extends NodeBase<?>> structure = node.getStructure();
+    this.setRule(structure.rule);
+    for (final NodeBase<?> child : structure.children)
+    {
+      this.addChild(null == child ? null : new FrozenNode(child));
+    }
+  }
+  
+  @Override
+  SpacialVolume getRoutingRegion()
+  {
+    return null == this.bounds ? this.getRegion() : this.bounds;
+  }
+  
+  @Override
+  public double getWeight()
+  {
+    return this.weight;
+  }
+  
+  @Override
+  public String toString()
+  {
+    try
+    {
+      return JsonConverter.toJson(this, 0).toString();
+    }
+    catch (final JSONException e)
+    {
+      return e.getMessage();
+    }
+  }
+  
+}
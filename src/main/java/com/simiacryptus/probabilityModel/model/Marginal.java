@@ -0,0 +1,399 @@
+package com.simiacryptus.probabilityModel.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.simiacryptus.data.DoubleRange;
+
+/**
+ * A model's marginal distribution over one dimension, with each leaf's weight spread evenly across its extent in that
+ * dimension. The cumulative weight is piecewise linear between the leaves' bounds: each leaf adds a slope from one
+ * bound to the other, or a step at its finite bound if it has no finite extent in the dimension. These events are
+ * sorted once while the regions stay the same, and their weights kept in Fenwick trees over the sorted events, so that
+ * a change of weights only updates the leaves whose weight changed, and any query is a binary search over prefix sums.
+ * Each instance is immutable; reweigh() gives a new one sharing the sorted events.
+ */
+final class Marginal
+{
+
+  /**
+   * The leaves' events, sorted by position
+   */
+  private static final class Events
+  {
+    final NodeBase<?>[] leaves;
+    // Per event: its position, its leaf, and the slope it adds per unit of the leaf's mass, 0 for a step
+    final double[]      position;
+    final int[]         leaf;
+    final double[]      rate;
+    // Per leaf: its first event and its second, or -1 for a step
+    final int[]         first;
+    final int[]         second;
+    // The first event at each distinct position
+    final int[]         bound;
+    // The first and last positions where a slope starts or stops; the cumulative weight is flat outside them
+    final double        from;
+    final double        to;
+
+    Events(final NodeBase<?>[] leaves, final Integer[] order, final double[] position, final int[] leaf, final double[] rate)
+    {
+      this.leaves = leaves;
+      this.position = new double[order.length];
+      this.leaf = new int[order.length];
+      this.rate = new double[order.length];
+      this.first = new int[leaves.length];
+      this.second = new int[leaves.length];
+      Arrays.fill(this.first, -1);
+      Arrays.fill(this.second, -1);
+      int bounds = 0;
+      double from = 0;
+      double to = 0;
+      boolean isSloped = false;
+      for (int e = 0; e < order.length; e++)
+      {
+        this.position[e] = position[order[e]];
+        this.leaf[e] = leaf[order[e]];
+        this.rate[e] = rate[order[e]];
+        if (-1 == this.first[this.leaf[e]])
+        {
+          this.first[this.leaf[e]] = e;
+        }
+        else
+        {
+          this.second[this.leaf[e]] = e;
+        }
+        if (0 == e || this.position[e] != this.position[e - 1])
+        {
+          bounds++;
+        }
+        if (0 != this.rate[e])
+        {
+          from = isSloped ? from : this.position[e];
+          to = this.position[e];
+          isSloped = true;
+        }
+      }
+      this.from = from;
+      this.to = to;
+      this.bound = new int[bounds];
+      for (int e = 0, b = 0; e < order.length; e++)
+      {
+        if (0 == e || this.position[e] != this.position[e - 1])
+        {
+          this.bound[b++] = e;
+        }
+      }
+    }
+  }
+
+  // Once the point updates since the trees were last filled outnumber this share of the leaves, they are filled again
+  // instead, which costs no more than the updates and keeps their rounding from building up
+  private static final double maxUpdateShare = 0.125;
+
+  /**
+   * The marginal of the leaves below root, whose events stay valid until any region changes
+   */
+  static <T extends NodeBase<T>> Marginal build(final T root, final int dimension, final int regionVersion, final int weightVersion)
+  {
+    final List<T> leaves = new ArrayList<T>();
+    final List<T> stack = new ArrayList<T>();
+    stack.add(root);
+    while (!stack.isEmpty())
+    {
+      final T node = stack.remove(stack.size() - 1);
+      // One read, so that a concurrent split or collapse can't pair one rule with the other's children
+      final NodeBase.Structure<T> structure = node.getStructure();
+      if (null == structure.rule)
+      {
+        leaves.add(node);
+        continue;
+      }
+      for (final T child : structure.children)
+      {
+        if (null != child)
+        {
+          stack.add(child);
+        }
+      }
+    }
+    // Two events per leaf: where its slope starts and stops, or a single step. Leaves without weight have events too,
+    // so that they can gain weight without the events being sorted again.
+    final double[] position = new double[2 * leaves.size()];
+    final int[] leaf = new int[2 * leaves.size()];
+    final double[] rate = new double[2 * leaves.size()];
+    int events = 0;
+    for (int i = 0; i < leaves.size(); i++)
+    {
+      final DoubleRange range = leaves.get(i).getRegion().getRange(dimension);
+      final double size = range.to - range.from;
+      if (0 < size && !Double.isInfinite(size) && Math.abs(range.from) != Double.MAX_VALUE && Math.abs(range.to) != Double.MAX_VALUE)
+      {
+        position[events] = range.from;
+        leaf[events] = i;
+        rate[events++] = 1 / size;
+        position[events] = range.to;
+        leaf[events] = i;
+        rate[events++] = -1 / size;
+      }
+      else
+      {
+        position[events] = Math.abs(range.from) != Double.MAX_VALUE ? range.from : range.to;
+        leaf[events++] = i;
+      }
+    }
+    final Integer[] order = new Integer[events];
+    for (int i = 0; i < events; i++)
+    {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> Double.compare(position[a], position[b]));
+    final NodeBase<?>[] leafArray = leaves.toArray(new NodeBase<?>[leaves.size()]);
+    final double[] mass = new double[leafArray.length];
+    double total = 0;
+    for (int i = 0; i < mass.length; i++)
+    {
+      mass[i] = getMass(leafArray[i]);
+      total += mass[i];
+    }
+    return fill(new Events(leafArray, order, position, leaf, rate), regionVersion, weightVersion, mass, total);
+  }
+
+  /**
+   * The leaf's weight, up to a factor shared by the whole model, or 0 if it has none
+   */
+  private static double getMass(final NodeBase<?> leaf)
+  {
+    final double mass = leaf.getMass();
+    return 0 < mass ? mass : 0;
+  }
+
+  /**
+   * A marginal over the events with the given masses, its trees filled from scratch
+   */
+  private static Marginal fill(final Events events, final int regionVersion, final int weightVersion, final double[] mass, final double total)
+  {
+    final double[] slope = new double[events.position.length + 1];
+    final double[] offset = new double[events.position.length + 1];
+    for (int e = 0; e < events.position.length; e++)
+    {
+      slope[e + 1] = getSlope(events, e, mass[events.leaf[e]]);
+      offset[e + 1] = getOffset(events, e, mass[events.leaf[e]]);
+    }
+    for (int i = 1; i < slope.length; i++)
+    {
+      final int parent = i + (i & -i);
+      if (parent < slope.length)
+      {
+        slope[parent] += slope[i];
+        offset[parent] += offset[i];
+      }
+    }
+    return new Marginal(events, regionVersion, weightVersion, mass, total, slope, offset, 0);
+  }
+
+  /**
+   * The slope the event adds after it, given its leaf's mass
+   */
+  private static double getSlope(final Events events, final int event, final double mass)
+  {
+    return mass * events.rate[event];
+  }
+
+  /**
+   * The event adds (x - from) * slope - offset to the weight below any x past it: offset is what its slope would have
+   * added between the first slope and the event, or minus its step
+   */
+  private static double getOffset(final Events events, final int event, final double mass)
+  {
+    return 0 == events.rate[event] ? -mass : mass * events.rate[event] * (events.position[event] - events.from);
+  }
+
+  private static void add(final double[] tree, final int event, final double delta)
+  {
+    for (int i = event + 1; i < tree.length; i += i & -i)
+    {
+      tree[i] += delta;
+    }
+  }
+
+  /**
+   * The sum over the first count events
+   */
+  private static double sum(final double[] tree, final int count)
+  {
+    double sum = 0;
+    for (int i = count; 0 < i; i -= i & -i)
+    {
+      sum += tree[i];
+    }
+    return sum;
+  }
+
+  final int              regionVersion;
+  final int              weightVersion;
+  private final Events   events;
+  // Per leaf, as last read
+  private final double[] mass;
+  private final double   total;
+  // Fenwick trees over the events' slopes and offsets
+  private final double[] slope;
+  private final double[] offset;
+  // Point updates since the trees were last filled
+  private final int      updates;
+
+  private Marginal(final Events events, final int regionVersion, final int weightVersion, final double[] mass, final double total, final double[] slope, final double[] offset, final int updates)
+  {
+    this.events = events;
+    this.regionVersion = regionVersion;
+    this.weightVersion = weightVersion;
+    this.mass = mass;
+    this.total = total;
+    this.slope = slope;
+    this.offset = offset;
+    this.updates = updates;
+  }
+
+  /**
+   * This marginal with its leaves' current weights, updating only the leaves whose weight has changed. Only valid
+   * while no region has changed since build().
+   */
+  Marginal reweigh(final int weightVersion)
+  {
+    final NodeBase<?>[] leaves = this.events.leaves;
+    final double[] mass = new double[leaves.length];
+    double total = 0;
+    int changed = 0;
+    for (int i = 0; i < leaves.length; i++)
+    {
+      mass[i] = getMass(leaves[i]);
+      total += mass[i];
+      if (mass[i] != this.mass[i])
+      {
+        changed++;
+      }
+    }
+    if (0 == changed)
+    {
+      return new Marginal(this.events, this.regionVersion, weightVersion, this.mass, this.total, this.slope, this.offset, this.updates);
+    }
+    if (this.updates + changed > maxUpdateShare * leaves.length)
+    {
+      return fill(this.events, this.regionVersion, weightVersion, mass, total);
+    }
+    final double[] slope = this.slope.clone();
+    final double[] offset = this.offset.clone();
+    for (int i = 0; i < leaves.length; i++)
+    {
+      if (mass[i] != this.mass[i])
+      {
+        for (final int event : new int[] { this.events.first[i], this.events.second[i] })
+        {
+          if (0 <= event)
+          {
+            add(slope, event, getSlope(this.events, event, mass[i]) - getSlope(this.events, event, this.mass[i]));
+            add(offset, event, getOffset(this.events, event, mass[i]) - getOffset(this.events, event, this.mass[i]));
+          }
+        }
+      }
+    }
+    return new Marginal(this.events, this.regionVersion, weightVersion, mass, total, slope, offset, this.updates + changed);
+  }
+
+  /**
+   * The weight below the value, given that the first count events are those before it
+   */
+  private double getWeight(final int count, final double value)
+  {
+    // The cumulative weight is flat outside the slopes, where the sum of the slopes is only rounding
+    final double x = Math.max(this.events.from, Math.min(this.events.to, value));
+    return (x - this.events.from) * sum(this.slope, count) - sum(this.offset, count);
+  }
+
+  /**
+   * The fraction of the weight below the value
+   */
+  double cdf(final double value)
+  {
+    if (0 == this.total)
+    {
+      return 0;
+    }
+    final int count = this.getCount(value);
+    if (0 == count)
+    {
+      return 0;
+    }
+    if (this.events.position.length == count)
+    {
+      return 1;
+    }
+    return Math.max(0, Math.min(1, this.getWeight(count, value) / this.total));
+  }
+
+  /**
+   * The least value with at least the given fraction of the weight at or below it
+   */
+  double quantile(final double p)
+  {
+    if (0 == this.total)
+    {
+      return Double.NaN;
+    }
+    final double target = p * this.total;
+    final int[] bound = this.events.bound;
+    final double[] position = this.events.position;
+    // The last bound with no more than the target below it
+    int low = 0;
+    int high = bound.length - 1;
+    while (low < high)
+    {
+      final int mid = (low + high + 1) >>> 1;
+      if (this.getWeight(bound[mid], position[bound[mid]]) <= target)
+      {
+        low = mid;
+      }
+      else
+      {
+        high = mid - 1;
+      }
+    }
+    final double at = position[bound[low]];
+    if (low == bound.length - 1)
+    {
+      return at;
+    }
+    // Past the bound's own events
+    final int count = bound[low + 1];
+    final double remainder = target - this.getWeight(count, at);
+    final double slope = sum(this.slope, count);
+    if (remainder <= 0 || !(0 < slope))
+    {
+      return at;
+    }
+    return Math.min(at + remainder / slope, position[count]);
+  }
+
+  /**
+   * The number of events before the value
+   */
+  private int getCount(final double value)
+  {
+    int low = 0;
+    int high = this.events.position.length;
+    while (low < high)
+    {
+      final int mid = (low + high) >>> 1;
+      if (this.events.position[mid] < value)
+      {
+        low = mid + 1;
+      }
+      else
+      {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+}
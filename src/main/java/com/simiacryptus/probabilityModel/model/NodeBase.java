@@ -4,9 +4,12 @@ import com.simiacryptus.data.VolumeMetric;
 import com.simiacryptus.probabilityModel.rules.PartitionRule;
 import com.simiacryptus.probabilityModel.volume.SpacialVolume;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
 
 public abstract class NodeBase<T extends NodeBase<T>>
 {
@@ -14,9 +17,56 @@ public abstract class NodeBase<T extends NodeBase<T>>
   protected DistributionModel<T> tree;
   private T                    parent;
   private SpacialVolume        region;
-  private PartitionRule              rule      = null;
-  private final List<T>              children  = new ArrayList<T>();
-  private int                        nodeCount = 1;
+  // Replaced as a whole on every change, so that lock-free readers never see a rule without its children
+  private volatile Structure<T>      structure = new Structure<T>(null, Collections.<T> emptyList());
+  private final AtomicInteger        nodeCount = new AtomicInteger(1);
+  // This node's position among its parent's children, assigned by addChild
+  private int                        childIndex = -1;
+  // The path, as of the model's structure version
+  private volatile PathStamp         pathStamp;
+  // Volumes derived from the regions of this node and its ancestors, as of the model's region version
+  private volatile VolumeStats       volumeStats;
+  
+  /**
+   * A node's rule and the children it routes to; never modified once published
+   */
+  static final class Structure<T>
+  {
+    final PartitionRule rule;
+    final List<T>       children;
+    
+    Structure(final PartitionRule rule, final List<T> children)
+    {
+      this.rule = rule;
+      this.children = children;
+    }
+  }
+  
+  private static final class PathStamp
+  {
+    final int    version;
+    final String path;
+    
+    PathStamp(final int version, final String path)
+    {
+      this.version = version;
+      this.path = path;
+    }
+  }
+  
+  private static final class VolumeStats
+  {
+    final int          version;
+    final VolumeMetric volume;
+    final VolumeMetric volumeFraction;
+    
+    VolumeStats(final int version, final VolumeMetric volume, final VolumeMetric volumeFraction)
+    {
+      this.version = version;
+      this.volume = volume;
+      this.volumeFraction = volumeFraction;
+    }
+  }
   
   protected NodeBase(final DistributionModel<T> tree, final SpacialVolume range)
   {
@@ -33,26 +83,162 @@ public abstract class NodeBase<T extends NodeBase<T>>
     this.setRegion(range);
   }
   
-  public synchronized String getPath()
+  /**
+   * The hex digits of each child index from the root down to this node; cached until the tree's structure changes
+   */
+  public String getPath()
   {
     final T parent = getParent();
     if(null == parent) return "";
-    final int indexOf = parent.getChildren().indexOf(this);
-    if(0 > indexOf) throw new RuntimeException();
-    return parent.getPath() + Integer.toHexString(indexOf);
+    final DistributionModel<T> tree = this.getTree();
+    final int version = null == tree ? -1 : tree.getStructureVersion();
+    final PathStamp stamp = this.pathStamp;
+    if (null != stamp && version == stamp.version && 0 <= version)
+    {
+      return stamp.path;
+    }
+    if(!this.isChildOf(parent)) throw new RuntimeException();
+    final String path = parent.getPath() + Integer.toHexString(this.childIndex);
+    this.pathStamp = new PathStamp(version, path);
+    return path;
+  }
+  
+  /**
+   * This node's position among its parent's children
+   */
+  public final int getChildIndex()
+  {
+    return this.childIndex;
+  }
+  
+  private boolean isChildOf(final NodeBase<T> parent)
+  {
+    final List<T> siblings = parent.getChildren();
+    return 0 <= this.childIndex && this.childIndex < siblings.size() && this == siblings.get(this.childIndex);
   }
   
-  @SuppressWarnings("unchecked")
   protected final synchronized void addChild(final T child)
   {
-    assert(this.nodeCount == countNodes());
+    final List<T> children = new ArrayList<T>(this.structure.children);
+    this.adopt(child, children.size());
+    children.add(child);
+    this.publish(this.structure.rule, Collections.unmodifiableList(children));
+  }
+  
+  /**
+   * Replaces this node's rule and children in a single step, as seen by concurrent readers
+   */
+  protected final synchronized void setStructure(final PartitionRule rule, final List<T> newChildren)
+  {
+    this.releaseChildren();
+    final List<T> children = new ArrayList<T>(newChildren);
+    for (int i = 0; i < children.size(); i++)
+    {
+      this.adopt(children.get(i), i);
+    }
+    this.publish(rule, Collections.unmodifiableList(children));
+  }
+  
+  /**
+   * Publishes children that are only built when first read, for copies that would otherwise build whole subtrees up
+   * front. nodeCount is the size of this node's subtree once they are built.
+   */
+  protected final synchronized void setLazyChildren(final PartitionRule rule, final int size, final IntFunction<T> factory, final int nodeCount)
+  {
+    this.releaseChildren();
+    this.addNodeCount(nodeCount - this.nodeCount.get());
+    this.structure = new Structure<T>(rule, new LazyChildren(size, factory));
+    this.structureChanged();
+  }
+  
+  /**
+   * Builds every child on the first read and adopts them without recounting, since the owner's count already covers
+   * them
+   */
+  private final class LazyChildren extends AbstractList<T>
+  {
+    private final int          size;
+    private IntFunction<T>     factory;
+    private volatile List<T>   children;
+    
+    LazyChildren(final int size, final IntFunction<T> factory)
+    {
+      this.size = size;
+      this.factory = factory;
+    }
+    
+    boolean isBuilt()
+    {
+      return null != this.children;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private List<T> build()
+    {
+      List<T> children = this.children;
+      if (null == children)
+      {
+        synchronized (this)
+        {
+          children = this.children;
+          if (null == children)
+          {
+            children = new ArrayList<T>(this.size);
+            for (int i = 0; i < this.size; i++)
+            {
+              final T child = this.factory.apply(i);
+              if (null != child)
+              {
+                child.setParent((T) NodeBase.this);
+                ((NodeBase<T>) child).childIndex = i;
+              }
+              children.add(child);
+            }
+            this.factory = null;
+            this.children = children;
+          }
+        }
+      }
+      return children;
+    }
+    
+    @Override
+    public T get(final int index)
+    {
+      return this.build().get(index);
+    }
+    
+    @Override
+    public int size()
+    {
+      return this.size;
+    }
+  }
+  
+  @SuppressWarnings("unchecked")
+  private void adopt(final T child, final int index)
+  {
     if(null != child) 
     {
       child.setParent((T) this);
+      ((NodeBase<T>) child).childIndex = index;
       this.addNodeCount(child.getNodeCount());
     }
-    this.children.add(child);
-    assert(this.nodeCount == countNodes());
+  }
+  
+  private void releaseChildren()
+  {
+    for (final T c : this.structure.children)
+    {
+      if(null != c) this.addNodeCount(-c.getNodeCount());
+    }
+  }
+  
+  private void publish(final PartitionRule rule, final List<T> children)
+  {
+    this.structure = new Structure<T>(rule, children);
+    this.structureChanged();
+    assert(this.nodeCount.get() == countNodes());
   }
   
   protected synchronized void addChildren(final List<T> newChildren)
@@ -63,29 +249,35 @@ public abstract class NodeBase<T extends NodeBase<T>>
     }
   }
   
-  protected final synchronized void addNodeCount(final int delta)
+  /**
+   * Lock-free, since readers lock from parent to child (see PointNode.getMass)
+   */
+  protected final void addNodeCount(final int delta)
   {
-    this.nodeCount += delta;
-    assert(0 < this.nodeCount);
-    if (null != parent)
+    for (NodeBase<T> node = this; null != node; node = node.parent)
     {
-      parent.addNodeCount(delta);
+      final int nodeCount = node.nodeCount.addAndGet(delta);
+      assert(0 < nodeCount);
     }
   }
   
   protected final synchronized void clearChildren()
   {
-    for (final T c : this.children)
-    {
-      if(null != c) this.addNodeCount(-c.getNodeCount());
-    }
-    this.children.clear();
-    assert(this.nodeCount == countNodes());
+    this.releaseChildren();
+    this.publish(this.structure.rule, Collections.<T> emptyList());
   }
   
+  /**
+   * An unmodifiable snapshot of the children, unaffected by later changes
+   */
   public final List<T> getChildren()
   {
-    return Collections.unmodifiableList(this.children);
+    return this.structure.children;
+  }
+  
+  final Structure<T> getStructure()
+  {
+    return this.structure;
   }
   
   @SuppressWarnings("unchecked")
@@ -95,14 +287,15 @@ public abstract class NodeBase<T extends NodeBase<T>>
     {
       return null;
     }
-    if (null == this.getRule())
+    final Structure<T> structure = this.structure;
+    if (null == structure.rule)
     {
       return (T) this;
     }
     else
     {
-      final int index = this.getRule().evaluate(point);
-      final T child = this.getChildren().get(index);
+      final int index = structure.rule.evaluate(point);
+      final T child = structure.children.get(index);
       if(null == child)
       {
         return null;
@@ -116,19 +309,81 @@ public abstract class NodeBase<T extends NodeBase<T>>
   
   protected boolean contains(double[] point)
   {
-    return this.getRegion().contains(point);
+    return this.getRoutingRegion().contains(point);
+  }
+  
+  /**
+   * The region a point must lie in to be routed to this node; usually the node's region
+   */
+  SpacialVolume getRoutingRegion()
+  {
+    return this.getRegion();
+  }
+  
+  /**
+   * The model this node belongs to, or null while it is detached; nodes built detached pick it up from their parent
+   */
+  final DistributionModel<T> getTree()
+  {
+    if (null == this.tree && null != this.parent)
+    {
+      this.tree = this.parent.getTree();
+    }
+    return this.tree;
+  }
+  
+  /**
+   * Invalidates the model's compiled lookup structure and cached volumes, after a change to the rules, regions or
+   * shape of its tree
+   */
+  final void structureChanged()
+  {
+    final DistributionModel<T> tree = this.getTree();
+    if (null != tree)
+    {
+      tree.structureChanged();
+    }
+  }
+  
+  /**
+   * Invalidates the model's cached volumes, after a change to this node's region that leaves routing unaffected
+   */
+  final void regionChanged()
+  {
+    final DistributionModel<T> tree = this.getTree();
+    if (null != tree)
+    {
+      tree.regionChanged();
+    }
+  }
+  
+  /**
+   * Invalidates the model's cached marginals, after a change to the weight of this node's subtree
+   */
+  final void weightChanged()
+  {
+    final DistributionModel<T> tree = this.getTree();
+    if (null != tree)
+    {
+      tree.weightChanged();
+    }
   }
 
   public final int getNodeCount()
   {
-    assert(this.nodeCount == countNodes());
-    return this.nodeCount;
+    assert(this.nodeCount.get() == countNodes());
+    return this.nodeCount.get();
   }
   
   protected int countNodes()
   {
+    final List<T> children = this.structure.children;
+    if (children instanceof NodeBase.LazyChildren && !((NodeBase<?>.LazyChildren) children).isBuilt())
+    {
+      return this.nodeCount.get();
+    }
     int c = 1;
-    for(T child : getChildren())
+    for(T child : children)
     {
       if(null != child)
       {
@@ -140,11 +395,26 @@ public abstract class NodeBase<T extends NodeBase<T>>
 
   public T getParent()
   {
-    assert(null == this.parent || -1 < this.parent.getChildren().indexOf(this));
+    assert(null == this.parent || this.isChildOf(this.parent));
 
     return this.parent;
   }
   
+  /**
+   * Whether every ancestor link still holds; removed children keep a reference to their former parent
+   */
+  final boolean isAttached()
+  {
+    for (NodeBase<T> node = this; null != node.parent; node = node.parent)
+    {
+      if (!node.isChildOf(node.parent))
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+  
   public SpacialVolume getRegion()
   {
     return this.region;
@@ -153,48 +423,91 @@ public abstract class NodeBase<T extends NodeBase<T>>
   @SuppressWarnings("unchecked")
   public T getRoot()
   {
-    if (null == this.getParent())
+    NodeBase<T> node = this;
+    while (null != node.getParent())
     {
-      return (T) this;
+      node = node.getParent();
     }
-    return this.getParent().getRoot();
+    return (T) node;
   }
   
   public PartitionRule getRule()
   {
-    return this.rule;
+    return this.structure.rule;
   }
 
+  /**
+   * The region's volume as first read since the region last changed. A cell cut by oblique linear rules has a Monte
+   * Carlo estimate of its volume, the same one each time (see Polytope.getVolume()); a cell cut by other rules than
+   * linear ones has an estimate that later sampling of the region goes on refining. This keeps the first, so that
+   * densities over an unchanged tree agree with each other.
+   */
   public VolumeMetric getVolume()
   {
-    return this.getRegion().getVolume();
+    return this.getVolumeStats().volume;
   }
   
   public abstract double getWeight();
   
-  protected void setRule(final PartitionRule rule)
+  /**
+   * The weight, up to a factor shared by every node of the model, so that it only changes when weights change
+   * relative to each other
+   */
+  double getMass()
+  {
+    return this.getWeight();
+  }
+  
+  protected synchronized void setRule(final PartitionRule rule)
   {
-    this.rule = rule;
+    this.publish(rule, this.structure.children);
     //assert(verifyStructure());
   }
 
   void setParent(T obj)
   {
     this.parent = obj;
+    if (null != obj)
+    {
+      this.tree = obj.getTree();
+    }
   }
 
   protected void setRegion(SpacialVolume region)
   {
     this.region = region;
+    this.structureChanged();
   }
 
+  /**
+   * This node's volume as a fraction of its outermost ancestor's (stopping below any ancestor of zero volume)
+   */
   public VolumeMetric getVolumeFraction()
   {
-    VolumeMetric nodeVolume = getRegion().getVolume();
-    T volumeParent = getParent();
+    return this.getVolumeStats().volumeFraction;
+  }
+  
+  private VolumeStats getVolumeStats()
+  {
+    final DistributionModel<T> tree = this.getTree();
+    final int version = null == tree ? -1 : tree.getRegionVersion();
+    VolumeStats stats = this.volumeStats;
+    if (null == stats || version != stats.version || 0 > version)
+    {
+      final VolumeMetric volume = this.getRegion().getVolume();
+      stats = new VolumeStats(version, volume, this.computeVolumeFraction(volume));
+      this.volumeStats = stats;
+    }
+    return stats;
+  }
+  
+  private VolumeMetric computeVolumeFraction(final VolumeMetric nodeVolume)
+  {
+    // Reads the parent links directly; a concurrent reader may hold a node that has since been detached
+    NodeBase<T> volumeParent = this.parent;
     while(null != volumeParent)
     {
-      T next = volumeParent.getParent();
+      NodeBase<T> next = volumeParent.parent;
       VolumeMetric v = null==next?new VolumeMetric(0, 0):next.getVolume();
       if(0 >= v.value || null == next)
       {
@@ -208,7 +521,7 @@ public abstract class NodeBase<T extends NodeBase<T>>
           return nodeVolume.divide(v);
         }
       }
-      volumeParent = volumeParent.getParent();
+      volumeParent = volumeParent.parent;
     }
     return new VolumeMetric(0, 0);
   }
@@ -1,31 +1,570 @@
-package com.simiacryptus.probabilityModel.model;
-
-import java.util.Collection;
-
-import com.simiacryptus.probabilityModel.volume.DoubleVolume;
-
-public final class PointModel extends DistributionModel<PointNode>
-{
-  private final DoubleVolume range;
-  
-  public PointModel(final DoubleVolume range)
-  {
-    this.range = range;
-  }
-  
-  public void addDataPoint(final double[] point)
-  {
-    this.getRoot().addDataPoint(point);
-  }
-  
-  @Override
-  protected PointNode constructRoot()
-  {
-    return new PointNode(this.range, this);
-  }
-  
-  public Collection<double[]> getDataPoints()
-  {
-    return this.getRoot().getDataPoints();
-  }
+package com.simiacryptus.probabilityModel.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import com.simiacryptus.probabilityModel.points.ColumnarPointStore;
+import com.simiacryptus.probabilityModel.points.PointStore;
+import com.simiacryptus.probabilityModel.volume.DoubleVolume;
+
+/**
+ * A model built from data points. Points may be added from many threads at once; rows added since the last read of
+ * the index wait in striped buffers, so concurrent writers rarely contend for a lock. A writer holds its stripe from
+ * adding a point to the store until its row is queued, and compacting the store holds every stripe, so that no row
+ * is numbered against one store and laid out against another. Ingestion must not run concurrently with changes to
+ * the tree structure (setRule).
+ */
+public class PointModel extends DistributionModel<PointNode>
+{
+  /**
+   * Rows added to leaves since the index was last laid out.
+   */
+  private static final class PendingRows
+  {
+    PointNode[] leaves = new PointNode[0];
+    int[]       rows   = new int[0];
+    int         size   = 0;
+    
+    synchronized void add(final PointNode leaf, final int row)
+    {
+      if (this.size == this.rows.length)
+      {
+        final int capacity = Math.max(16, this.size * 2);
+        this.leaves = Arrays.copyOf(this.leaves, capacity);
+        this.rows = Arrays.copyOf(this.rows, capacity);
+      }
+      this.leaves[this.size] = leaf;
+      this.rows[this.size] = row;
+      this.size++;
+    }
+  }
+  
+  private static final int     batchSize = 1 << 16;
+  // The index is reallocated at twice the rows it must hold, within these bounds
+  private static final int     minCapacity   = 16;
+  private static final int     maxCapacity   = Integer.MAX_VALUE - 8;
+  // The store is compacted once the rows it holds but the index no longer refers to pass this, and the rows it does
+  private static final int     minCompaction = 1024;
+  private static final int     stripes   = Integer.highestOneBit(4 * Runtime.getRuntime().availableProcessors() - 1) << 1;
+  
+  private final DoubleVolume   range;
+  private volatile PointStore  store;
+  // The store's retained rows, each node's in its own slice (see PointNode.start); the rest is free space
+  private int[]                index     = new int[0];
+  // The number of rows in the index
+  private int                  rowCount  = 0;
+  private final PendingRows[]  pending   = new PendingRows[stripes];
+  // Leaves that have received rows since the last call to takeDirtyLeaves()
+  private final Set<PointNode> dirtyLeaves = new LinkedHashSet<PointNode>();
+  // Rows below this have been evicted, and are dropped from the index when it is next laid out
+  volatile int                 firstLiveRow = 0;
+  private int                  laidOutFrom  = 0;
+  private RetentionPolicy      retention    = RetentionPolicy.ALL;
+  // Set once the retention policy has dropped any row; until then every node retains a row per point it counts
+  private volatile boolean     hasDroppedRows = false;
+  private final Random         random       = new Random();
+  
+  public PointModel(final DoubleVolume range)
+  {
+    this(range, new ColumnarPointStore(range.dimensions()));
+  }
+  
+  /**
+   * Builds a model over the rows already in the given store, without copying them; all rows must lie within range.
+   * Each row is read once to check that it does.
+   */
+  public PointModel(final DoubleVolume range, final PointStore store)
+  {
+    if (store.dimensions() != range.dimensions())
+    {
+      throw new IllegalArgumentException(String.format("Store has %s dimensions; range has %s", store.dimensions(), range.dimensions()));
+    }
+    final double[] point = new double[store.dimensions()];
+    for (int row = 0; row < store.size(); row++)
+    {
+      if (!range.contains(store.get(row, point)))
+      {
+        throw new IllegalArgumentException(String.format("Row %s is outside of range: %s", row, Arrays.toString(point)));
+      }
+    }
+    this.range = range;
+    this.store = store;
+    for (int i = 0; i < this.pending.length; i++)
+    {
+      this.pending[i] = new PendingRows();
+    }
+    this.index = new int[store.size()];
+    for (int i = 0; i < this.index.length; i++)
+    {
+      this.index[i] = i;
+    }
+    this.rowCount = this.index.length;
+  }
+  
+  public void addDataPoint(final double[] point)
+  {
+    this.getRoot().addDataPoint(point);
+  }
+  
+  public void addDataPoints(final double[][] points)
+  {
+    this.getRoot().addDataPoints(points);
+  }
+  
+  /**
+   * Consumes the stream in fixed-size batches, each added with addDataPoints(double[][])
+   */
+  public void addDataPoints(final Stream<double[]> points)
+  {
+    final Iterator<double[]> iterator = points.iterator();
+    final List<double[]> batch = new ArrayList<double[]>();
+    while (iterator.hasNext())
+    {
+      batch.add(iterator.next());
+      if (batch.size() == batchSize || !iterator.hasNext())
+      {
+        this.addDataPoints(batch.toArray(new double[batch.size()][]));
+        batch.clear();
+      }
+    }
+  }
+  
+  /**
+   * Adds a point to the store and queues its row for the leaf, holding this thread's stripe throughout
+   * @return the point's row
+   */
+  int addRow(final PointNode leaf, final double[] point)
+  {
+    final PendingRows stripe = this.getStripe();
+    synchronized (stripe)
+    {
+      final int row = this.store.add(point);
+      stripe.add(leaf, row);
+      return row;
+    }
+  }
+  
+  /**
+   * Adds points to the store and queues each row for its leaf, holding this thread's stripe throughout
+   * @return the row of the first point
+   */
+  int addRows(final double[][] points, final PointNode[] leaves)
+  {
+    final PendingRows stripe = this.getStripe();
+    synchronized (stripe)
+    {
+      final int firstRow = this.store.addAll(points);
+      for (int i = 0; i < points.length; i++)
+      {
+        stripe.add(leaves[i], firstRow + i);
+      }
+      return firstRow;
+    }
+  }
+  
+  private PendingRows getStripe()
+  {
+    return this.pending[(int) Thread.currentThread().getId() & (stripes - 1)];
+  }
+  
+  /**
+   * Runs the action holding every stripe from the given one on, so that no writer is between adding a point to the
+   * store and queueing its row
+   */
+  private void holdStripes(final int stripe, final Runnable action)
+  {
+    if (stripe == this.pending.length)
+    {
+      action.run();
+      return;
+    }
+    synchronized (this.pending[stripe])
+    {
+      this.holdStripes(stripe + 1, action);
+    }
+  }
+  
+  @Override
+  protected PointNode constructRoot()
+  {
+    final PointNode root = new PointNode(this.range, this);
+    root.addStoredRows(this.index.length);
+    if (0 < this.index.length)
+    {
+      this.dirtyLeaves.add(root);
+    }
+    return root;
+  }
+  
+  /**
+   * Drops the given number of leading rows, all of which must have been evicted, from the store and renumbers the rest.
+   * The index must already be laid out.
+   */
+  synchronized void discardRows(final int count)
+  {
+    assert (count <= this.firstLiveRow);
+    final int[] index = this.index;
+    final PointStore store = this.store.newStore();
+    final double[] buffer = new double[store.dimensions()];
+    for (int row = count; row < this.store.size(); row++)
+    {
+      store.add(this.store.get(row, buffer));
+    }
+    for (final PointNode leaf : NodeUtil.getLeaves(this.getRoot()))
+    {
+      for (int i = leaf.start; i < leaf.end; i++)
+      {
+        index[i] -= count;
+      }
+    }
+    this.store = store;
+    this.firstLiveRow -= count;
+    this.laidOutFrom = this.firstLiveRow;
+  }
+  
+  public Collection<double[]> getDataPoints()
+  {
+    return this.getRoot().getDataPoints();
+  }
+  
+  /**
+   * Returns an immutable copy of the current rules, regions and weights, sharing no mutable state with this model: the
+   * regions are copied, and the rules, which the copy only evaluates, are shared. Must not run concurrently with
+   * partitioning.
+   */
+  public synchronized FrozenModel freeze()
+  {
+    return new FrozenModel(this.getRoot());
+  }
+  
+  /**
+   * Returns the shared row index, first appending any rows added since the last call to their leaves' slices. Only
+   * leaves without room for their new rows are moved, along with the smallest subtree around them with room to spare;
+   * so the cost of each call is in proportion to the rows added, not to the rows already laid out.
+   */
+  synchronized int[] getIndex()
+  {
+    if (this.layOut())
+    {
+      this.compact();
+    }
+    return this.index;
+  }
+  
+  /**
+   * Appends the rows added since the last call to their leaves' slices, sampling them down under the retention policy
+   * @return whether the store now holds enough dropped rows to be compacted
+   */
+  private boolean layOut()
+  {
+    final List<PointNode[]> leaves = new ArrayList<PointNode[]>();
+    final List<int[]> rows = new ArrayList<int[]>();
+    int pendingRows = 0;
+    for (final PendingRows stripe : this.pending)
+    {
+      synchronized (stripe)
+      {
+        if (0 < stripe.size)
+        {
+          leaves.add(Arrays.copyOf(stripe.leaves, stripe.size));
+          rows.add(Arrays.copyOf(stripe.rows, stripe.size));
+          pendingRows += stripe.size;
+          Arrays.fill(stripe.leaves, 0, stripe.size, null);
+          stripe.size = 0;
+        }
+      }
+    }
+    final int firstLiveRow = this.firstLiveRow;
+    if (0 < pendingRows || firstLiveRow > this.laidOutFrom)
+    {
+      final List<PointNode> touched = new ArrayList<PointNode>();
+      for (int s = 0; s < leaves.size(); s++)
+      {
+        final PointNode[] stripeLeaves = leaves.get(s);
+        final int[] stripeRows = rows.get(s);
+        for (int i = 0; i < stripeLeaves.length; i++)
+        {
+          if (stripeRows[i] >= firstLiveRow && 0 == stripeLeaves[i].pendingCount++)
+          {
+            this.dirtyLeaves.add(stripeLeaves[i]);
+            touched.add(stripeLeaves[i]);
+          }
+        }
+      }
+      if (firstLiveRow > this.laidOutFrom)
+      {
+        // Evicted rows are scattered through the index, so it is laid out afresh without them
+        this.grow(firstLiveRow);
+      }
+      else
+      {
+        for (final PointNode leaf : touched)
+        {
+          if (leaf.end + leaf.pendingCount > leaf.limit)
+          {
+            this.makeRoom(leaf);
+          }
+        }
+      }
+      final int[] added = new int[touched.size()];
+      for (int i = 0; i < added.length; i++)
+      {
+        added[i] = touched.get(i).pendingCount;
+        touched.get(i).pendingCount = 0;
+        this.rowCount += added[i];
+      }
+      // Each leaf's slice now has room after its rows for its pending rows, appended here in insertion order
+      for (int s = 0; s < leaves.size(); s++)
+      {
+        final PointNode[] stripeLeaves = leaves.get(s);
+        final int[] stripeRows = rows.get(s);
+        for (int i = 0; i < stripeLeaves.length; i++)
+        {
+          if (stripeRows[i] >= firstLiveRow)
+          {
+            this.index[stripeLeaves[i].end++] = stripeRows[i];
+          }
+        }
+      }
+      this.laidOutFrom = firstLiveRow;
+      if (Integer.MAX_VALUE > this.retention.maxRows)
+      {
+        boolean sampled = false;
+        for (int i = 0; i < added.length; i++)
+        {
+          sampled |= this.sample(touched.get(i), added[i]);
+        }
+        return sampled && this.getDroppedRows() > Math.max(minCompaction, this.rowCount);
+      }
+    }
+    return false;
+  }
+  
+  /**
+   * Makes room for a leaf's pending rows by laying out afresh the smallest subtree around it that is at most three
+   * quarters full, or if there is none, the whole index in a larger array
+   */
+  private void makeRoom(final PointNode leaf)
+  {
+    for (PointNode node = leaf; null != node; node = node.getParent())
+    {
+      final long need = node.countNeed();
+      if (4 * need <= 3L * (node.limit - node.start))
+      {
+        final int[] buffer = new int[node.need];
+        node.collect(this.index, buffer, 0, 0);
+        node.place(this.index, node.start, node.limit, buffer, 0);
+        return;
+      }
+    }
+    this.grow(0);
+  }
+  
+  /**
+   * Lays out the whole index afresh, in an array of twice the rows it must hold, dropping rows below firstLiveRow
+   */
+  private void grow(final int firstLiveRow)
+  {
+    final PointNode root = this.getRoot();
+    final int[] buffer = new int[root.countNeed()];
+    this.rowCount = root.collect(this.index, buffer, 0, firstLiveRow);
+    final int[] index = new int[(int) Math.max(minCapacity, Math.min(maxCapacity, 2L * root.need))];
+    root.place(index, 0, index.length, buffer, 0);
+    this.index = index;
+  }
+  
+  /**
+   * Moves the rows of a node's subtree to the front of its slice, so that they can be partitioned, or the node made a
+   * leaf. The index must already be laid out.
+   */
+  void gather(final PointNode node)
+  {
+    if (null == node.getRule())
+    {
+      return;
+    }
+    final int[] buffer = new int[node.countNeed()];
+    final int size = node.collect(this.index, buffer, 0, 0);
+    System.arraycopy(buffer, 0, this.index, node.start, size);
+    node.end = node.start + size;
+  }
+  
+  /**
+   * Reservoir-samples a leaf's slice down to the retention limit, treating its last added rows as arriving after the
+   * points it had already counted.
+   * @return whether the slice shrank
+   */
+  private boolean sample(final PointNode leaf, final int added)
+  {
+    final int maxRows = this.retention.maxRows;
+    final int rows = leaf.end - leaf.start;
+    if (rows <= maxRows)
+    {
+      return false;
+    }
+    long seen = leaf.getCount() - added;
+    int size = rows - added;
+    for (int i = rows - added; i < rows; i++)
+    {
+      final int row = this.index[leaf.start + i];
+      seen++;
+      if (size < maxRows)
+      {
+        this.index[leaf.start + size++] = row;
+      }
+      else
+      {
+        final long slot = (long) (this.random.nextDouble() * seen);
+        if (slot < maxRows)
+        {
+          this.index[leaf.start + (int) slot] = row;
+        }
+      }
+    }
+    this.rowCount -= rows - size;
+    leaf.end = leaf.start + size;
+    this.hasDroppedRows = true;
+    return true;
+  }
+  
+  boolean hasDroppedRows()
+  {
+    return this.hasDroppedRows;
+  }
+  
+  public synchronized RetentionPolicy getRetention()
+  {
+    return this.retention;
+  }
+  
+  /**
+   * Sets how many rows each leaf keeps. Leaves holding more are sampled down at once, and the store is compacted.
+   */
+  public synchronized void setRetention(final RetentionPolicy retention)
+  {
+    this.retention = retention;
+    this.getIndex();
+    boolean sampled = false;
+    for (final PointNode leaf : NodeUtil.getLeaves(this.getRoot()))
+    {
+      final int rows = leaf.end - leaf.start;
+      if (rows > retention.maxRows)
+      {
+        for (int i = 0; i < retention.maxRows; i++)
+        {
+          final int j = leaf.start + i + this.random.nextInt(rows - i);
+          final int row = this.index[j];
+          this.index[j] = this.index[leaf.start + i];
+          this.index[leaf.start + i] = row;
+        }
+        this.rowCount -= rows - retention.maxRows;
+        leaf.end = leaf.start + retention.maxRows;
+        this.hasDroppedRows = true;
+        sampled = true;
+      }
+    }
+    if (sampled)
+    {
+      this.compact();
+    }
+  }
+  
+  /**
+   * Rebuilds the store with only the rows the index still refers to. This also happens on its own once rows dropped by
+   * the retention policy outnumber those kept. Writers wait meanwhile, and rows they queued before are laid out first,
+   * against the store they were numbered in.
+   */
+  public synchronized void compact()
+  {
+    this.holdStripes(0, () -> {
+      this.layOut();
+      this.compactStore();
+    });
+  }
+  
+  /**
+   * The number of rows in the store that compaction would drop
+   */
+  int getDroppedRows()
+  {
+    return this.store.size() - this.rowCount;
+  }
+  
+  /**
+   * Compacts the store against the index, which must already be laid out
+   */
+  void compactStore()
+  {
+    final int[] index = this.index;
+    if (this.rowCount == this.store.size())
+    {
+      return;
+    }
+    final PointStore store = this.store.newStore();
+    final double[] buffer = new double[store.dimensions()];
+    for (final PointNode leaf : NodeUtil.getLeaves(this.getRoot()))
+    {
+      for (int i = leaf.start; i < leaf.end; i++)
+      {
+        index[i] = store.add(this.store.get(index[i], buffer));
+      }
+    }
+    this.store = store;
+  }
+
+  /**
+   * Returns the leaves that have received points since the last call, and are still leaves of this model.
+   */
+  public synchronized List<PointNode> takeDirtyLeaves()
+  {
+    this.getIndex();
+    final List<PointNode> leaves = new ArrayList<PointNode>();
+    for (final PointNode leaf : this.dirtyLeaves)
+    {
+      if (null == leaf.getRule() && leaf.isAttached())
+      {
+        leaves.add(leaf);
+      }
+    }
+    this.dirtyLeaves.clear();
+    return leaves;
+  }
+  
+  /**
+   * Whether rows carry individual masses; when false every row has mass 1, and nodes only keep counts.
+   */
+  boolean isDecaying()
+  {
+    return false;
+  }
+  
+  /**
+   * The mass of a row; a node's weight is the total mass of its rows times getMassScale()
+   */
+  double getRowMass(final int row)
+  {
+    return 1;
+  }
+  
+  double getMass(final int[] rows, final int from, final int to)
+  {
+    return to - from;
+  }
+  
+  double getMassScale()
+  {
+    return 1;
+  }
+  
+  public PointStore getStore()
+  {
+    return this.store;
+  }
 }
\ No newline at end of file
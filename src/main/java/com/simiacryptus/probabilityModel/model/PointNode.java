@@ -1,14 +1,22 @@
 package com.simiacryptus.probabilityModel.model;
 
+import java.util.AbstractCollection;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
 
 import org.json.JSONException;
 
-import com.simiacryptus.collections.CompositeCollection;
-import com.simiacryptus.collections.ProxyCollection;
+import com.simiacryptus.probabilityModel.points.PointStore;
 import com.simiacryptus.probabilityModel.rules.PartitionRule;
 import com.simiacryptus.probabilityModel.visitors.JsonConverter;
 import com.simiacryptus.probabilityModel.volume.DoubleVolume;
@@ -17,56 +25,526 @@ import com.simiacryptus.probabilityModel.volume.SpacialVolume;
 public class PointNode extends NodeBase<PointNode>
 {
   
-  private final SpacialVolume             range;
-  private int                             dataSize   = 0;
-  private final ProxyCollection<double[]> dataPoints = new ProxyCollection<double[]>();
-  private DoubleVolume pointRange;
+  private final SpacialVolume   range;
+  private final PointModel      model;
+  // Points held by a leaf, and their mass when the model's weights decay (see PointModel.getRowMass);
+  // an internal node's mass is the sum of its children's, cached until marked stale
+  private final LongAdder       dataSize     = new LongAdder();
+  private final DoubleAdder     mass;
+  private volatile double       cachedMass   = 0;
+  private volatile boolean      stale        = false;
+  // This node's slice of the model's shared row index, [start, limit). A leaf's rows fill [start, end), leaving the
+  // rest free for rows added later; an internal node's children divide its slice among themselves, in order.
+  int                           start        = 0;
+  int                           end          = 0;
+  int                           limit        = 0;
+  // Scratch counts used by PointModel while laying out the index: a leaf's pending rows, and a subtree's rows plus
+  // its leaves' pending rows
+  int                           pendingCount = 0;
+  int                           need         = 0;
+  private volatile DoubleVolume pointRange;
+  // The base region narrowed to the point range, when the base region is unbounded; updated with the point range
+  private volatile SpacialVolume effectiveRegion;
   
   public PointNode(final PointNode parent, final SpacialVolume volume)
   {
     super(parent, volume);
     this.range = volume;
-    this.pointRange = new DoubleVolume(volume.dimensions());
+    this.model = parent.model;
+    this.mass = this.model.isDecaying() ? new DoubleAdder() : null;
+    this.setPointRange(new DoubleVolume(volume.dimensions()));
   }
   
-  PointNode(final SpacialVolume range, final DistributionModel<PointNode> tree)
+  PointNode(final SpacialVolume range, final PointModel model)
   {
-    super(tree, range);
+    super(model, range);
     this.range = range;
-    this.pointRange = new DoubleVolume(range.dimensions());
+    this.model = model;
+    this.mass = this.model.isDecaying() ? new DoubleAdder() : null;
+    this.setPointRange(new DoubleVolume(range.dimensions()));
   }
   
-  public synchronized void addDataPoint(final double[] point)
+  public void addDataPoint(final double[] newPoint)
   {
+    // Route the point as the store will hold it
+    final double[] point = this.getStore().round(newPoint);
     if(pointRange.isUnbounded() || !pointRange.contains(point))
     {
-      final DoubleVolume newRange = pointRange.include(point);
-      assert(null != newRange);
-      pointRange = newRange;
+      synchronized (this)
+      {
+        final DoubleVolume newRange = pointRange.include(point);
+        assert(null != newRange);
+        this.setPointRange(newRange);
+      }
     }
     final PointNode leaf = this.getLeaf(point);
-    leaf.dataPoints.add(point);
-    leaf.addDataSize(1);
+    if (null == leaf)
+    {
+      throw new IllegalArgumentException("Point outside of node region: " + Arrays.toString(point));
+    }
+    final int row = this.model.addRow(leaf, point);
+    leaf.addDataSize(1, this.model.getRowMass(row));
+  }
+  
+  /**
+   * Takes ownership of the first count rows of the index, which were in the store before this (root) node was built.
+   */
+  void addStoredRows(final int count)
+  {
+    if (0 == count)
+    {
+      return;
+    }
+    this.end = this.start + count;
+    this.limit = this.end;
+    this.dataSize.add(count);
+    this.weightChanged();
+    assert (null == this.mass);
+    if (this.range.isUnbounded())
+    {
+      final PointStore store = this.getStore();
+      final double[] min = store.getPoint(this.start);
+      final double[] max = store.getPoint(this.start);
+      for (int row = this.start; row < this.end; row++)
+      {
+        for (int d = 0; d < min.length; d++)
+        {
+          min[d] = Math.min(min[d], store.get(row, d));
+          max[d] = Math.max(max[d], store.get(row, d));
+        }
+      }
+      this.setPointRange(this.pointRange.include(new double[][] { min, max }));
+    }
+  }
+  
+  /**
+   * Adds a batch of points. Leaves are located in parallel, then the point range, the store, and each touched
+   * leaf's rows and counts are updated once per batch.
+   */
+  public void addDataPoints(final double[][] newPoints)
+  {
+    if (0 == newPoints.length)
+    {
+      return;
+    }
+    final PointStore store = this.getStore();
+    final double[][] points = new double[newPoints.length][];
+    final PointNode[] leaves = new PointNode[points.length];
+    IntStream.range(0, points.length).parallel().forEach(i -> {
+      points[i] = store.round(newPoints[i]);
+      leaves[i] = this.getLeaf(points[i]);
+    });
+    final Map<PointNode, int[]> leafCounts = new IdentityHashMap<PointNode, int[]>();
+    for (int i = 0; i < points.length; i++)
+    {
+      if (null == leaves[i])
+      {
+        throw new IllegalArgumentException("Point outside of node region: " + Arrays.toString(points[i]));
+      }
+      final int[] count = leafCounts.get(leaves[i]);
+      if (null == count)
+      {
+        leafCounts.put(leaves[i], new int[] { 1 });
+      }
+      else
+      {
+        count[0]++;
+      }
+    }
+    synchronized (this)
+    {
+      this.setPointRange(this.pointRange.include(points));
+    }
+    final int firstRow = this.model.addRows(points, leaves);
+    final Map<PointNode, int[]> leafRows = new IdentityHashMap<PointNode, int[]>();
+    for (final Map.Entry<PointNode, int[]> e : leafCounts.entrySet())
+    {
+      leafRows.put(e.getKey(), new int[e.getValue()[0]]);
+      e.getValue()[0] = 0;
+    }
+    for (int i = 0; i < points.length; i++)
+    {
+      leafRows.get(leaves[i])[leafCounts.get(leaves[i])[0]++] = firstRow + i;
+    }
+    for (final Map.Entry<PointNode, int[]> e : leafRows.entrySet())
+    {
+      e.getKey().addDataSize(e.getValue().length, this.model.getMass(e.getValue(), 0, e.getValue().length));
+    }
+  }
+  
+  /**
+   * Counts new points on a leaf without locking; ancestors are only flagged, and re-sum their children when next read.
+   */
+  protected void addDataSize(final int count, final double mass)
+  {
+    this.dataSize.add(count);
+    if (null != this.mass)
+    {
+      this.mass.add(mass);
+    }
+    this.countsChanged();
   }
   
-  protected synchronized void addDataSize(final int i)
+  /**
+   * Takes up to the remaining count and mass off this subtree's leaves in turn, as far as each leaf's estimate allows,
+   * and reduces what remains by what was taken. Writes must be serialized.
+   */
+  void takeDataSize(final double[] remaining)
   {
-    this.dataSize += i;
-    if (null != this.getParent())
+    final Structure<PointNode> structure = this.getStructure();
+    if (null != structure.rule)
+    {
+      for (final PointNode child : structure.children)
+      {
+        if (null != child && (0 < remaining[0] || 0 < remaining[1]))
+        {
+          child.takeDataSize(remaining);
+        }
+      }
+      return;
+    }
+    final long count = Math.min((long) remaining[0], this.dataSize.sum());
+    double mass = 0;
+    if (null != this.mass && 0 < remaining[1])
+    {
+      // Reset and re-added as a whole, so that the rest can't round below zero
+      final double available = this.mass.sumThenReset();
+      mass = Math.max(0, Math.min(available, remaining[1]));
+      this.mass.add(available - mass);
+    }
+    if (0 < count || 0 < mass)
+    {
+      this.dataSize.add(-count);
+      remaining[0] -= count;
+      remaining[1] -= mass;
+      this.countsChanged();
+    }
+  }
+  
+  private void countsChanged()
+  {
+    PointNode node = this.getParent();
+    for (; null != node && !node.stale; node = node.getParent())
+    {
+      node.stale = true;
+    }
+    // Only the first change since the root's weight was last read needs to invalidate the model's caches
+    if (null == node)
     {
-      this.getParent().addDataSize(i);
+      this.weightChanged();
     }
   }
   
+  /**
+   * A read-only snapshot view of this node's points; each point is materialized from the store as it is iterated.
+   */
   public Collection<double[]> getDataPoints()
   {
-    return Collections.unmodifiableCollection(this.dataPoints);
+    final int[] rows = this.getRows();
+    final PointStore store = this.getStore();
+    return new AbstractCollection<double[]>() {
+      @Override
+      public Iterator<double[]> iterator()
+      {
+        return new Iterator<double[]>() {
+          int index = 0;
+          
+          @Override
+          public boolean hasNext()
+          {
+            return this.index < rows.length;
+          }
+          
+          @Override
+          public double[] next()
+          {
+            if (!this.hasNext())
+            {
+              throw new NoSuchElementException();
+            }
+            return store.getPoint(rows[this.index++]);
+          }
+          
+          @Override
+          public void remove()
+          {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+      
+      @Override
+      public int size()
+      {
+        return rows.length;
+      }
+    };
+  }
+  
+  /**
+   * The store rows of all retained points within this node
+   */
+  public int[] getRows()
+  {
+    synchronized (this.model)
+    {
+      final int[] index = this.model.getIndex();
+      if (null == this.getRule())
+      {
+        return Arrays.copyOfRange(index, this.start, this.end);
+      }
+      final List<PointNode> leaves = NodeUtil.getLeaves(this);
+      int size = 0;
+      for (final PointNode leaf : leaves)
+      {
+        size += leaf.end - leaf.start;
+      }
+      final int[] rows = new int[size];
+      int offset = 0;
+      for (final PointNode leaf : leaves)
+      {
+        System.arraycopy(index, leaf.start, rows, offset, leaf.end - leaf.start);
+        offset += leaf.end - leaf.start;
+      }
+      return rows;
+    }
+  }
+  
+  /**
+   * Counts this subtree's rows plus its leaves' pending rows into need
+   */
+  int countNeed()
+  {
+    final Structure<PointNode> structure = this.getStructure();
+    if (null == structure.rule)
+    {
+      this.need = this.end - this.start + this.pendingCount;
+      return this.need;
+    }
+    this.need = 0;
+    for (final PointNode child : structure.children)
+    {
+      if (null != child)
+      {
+        this.need += child.countNeed();
+      }
+    }
+    return this.need;
+  }
+  
+  /**
+   * Copies this subtree's rows, leaf by leaf and less any evicted, into the buffer, and counts them plus the leaves'
+   * pending rows into need.
+   * @return the offset after the copied rows
+   */
+  int collect(final int[] index, final int[] buffer, int offset, final int firstLiveRow)
+  {
+    final Structure<PointNode> structure = this.getStructure();
+    if (null == structure.rule)
+    {
+      final int from = offset;
+      for (int i = this.start; i < this.end; i++)
+      {
+        if (index[i] >= firstLiveRow)
+        {
+          buffer[offset++] = index[i];
+        }
+      }
+      this.need = offset - from + this.pendingCount;
+      return offset;
+    }
+    this.need = 0;
+    for (final PointNode child : structure.children)
+    {
+      if (null != child)
+      {
+        offset = child.collect(index, buffer, offset, firstLiveRow);
+        this.need += child.need;
+      }
+    }
+    return offset;
+  }
+  
+  /**
+   * Lays this subtree out over index[start, limit), copying each leaf's rows from the buffer as collected, and leaving
+   * room after them for its pending rows. The space beyond the subtree's need is shared among the children in
+   * proportion to their needs plus one, so that empty leaves get some.
+   * @return the offset in the buffer after this subtree's rows
+   */
+  int place(final int[] index, final int start, final int limit, final int[] buffer, int offset)
+  {
+    this.start = start;
+    this.limit = limit;
+    final Structure<PointNode> structure = this.getStructure();
+    if (null == structure.rule)
+    {
+      final int rows = this.need - this.pendingCount;
+      System.arraycopy(buffer, offset, index, start, rows);
+      this.end = start + rows;
+      return offset + rows;
+    }
+    final List<PointNode> children = new ArrayList<PointNode>();
+    long weight = 0;
+    for (final PointNode child : structure.children)
+    {
+      if (null != child)
+      {
+        children.add(child);
+        weight += child.need + 1;
+      }
+    }
+    final long free = limit - start - this.need;
+    long need = 0;
+    long cumulativeWeight = 0;
+    int from = start;
+    for (int c = 0; c < children.size(); c++)
+    {
+      final PointNode child = children.get(c);
+      need += child.need;
+      cumulativeWeight += child.need + 1;
+      final int to = c == children.size() - 1 ? limit : (int) (start + need + free * cumulativeWeight / weight);
+      offset = child.place(index, from, to, buffer, offset);
+      from = to;
+    }
+    this.end = start;
+    return offset;
+  }
+  
+  public PointStore getStore()
+  {
+    return this.model.getStore();
   }
   
   @Override
   public double getWeight()
   {
-    return this.dataSize;
+    return this.getMass() * this.model.getMassScale();
+  }
+  
+  /**
+   * The weight of this node, before the model-wide decay factor is applied
+   */
+  @Override
+  double getMass()
+  {
+    final Structure<PointNode> structure = this.getStructure();
+    if (null == structure.rule)
+    {
+      return null == this.mass ? this.dataSize.sum() : this.mass.sum();
+    }
+    if (this.stale)
+    {
+      synchronized (this)
+      {
+        if (this.stale)
+        {
+          // Clear the cached sum before the flag, so that lock-free readers wait for the new sum instead of reading
+          // the old one; and clear the flag before reading the children, so that a concurrent add re-flags this node
+          this.cachedMass = Double.NaN;
+          this.stale = false;
+          double sum = 0;
+          for (final PointNode child : this.getChildren())
+          {
+            if (null != child)
+            {
+              sum += child.getMass();
+            }
+          }
+          this.cachedMass = sum;
+        }
+      }
+    }
+    final double mass = this.cachedMass;
+    if (Double.isNaN(mass))
+    {
+      synchronized (this)
+      {
+        return this.cachedMass;
+      }
+    }
+    return mass;
+  }
+  
+  /**
+   * The number of points in this node, including any whose rows the model's retention policy has dropped
+   */
+  long getCount()
+  {
+    final Structure<PointNode> structure = this.getStructure();
+    if (null == structure.rule)
+    {
+      return this.dataSize.sum();
+    }
+    long count = 0;
+    for (final PointNode child : structure.children)
+    {
+      if (null != child)
+      {
+        count += child.getCount();
+      }
+    }
+    return count;
+  }
+  
+  /**
+   * Whether this node retains at least the given number of rows. Until the model's retention policy has dropped any
+   * row, every node retains a row per point, so this is answered from the lock-free counts without laying out the
+   * index; only after that is getRowCount() consulted.
+   */
+  public boolean hasRows(final int rows)
+  {
+    if (this.getCount() < rows)
+    {
+      return false;
+    }
+    return !this.model.hasDroppedRows() || rows <= this.getRowCount();
+  }
+  
+  /**
+   * The number of rows this node retains; less than its count when the model's retention policy drops points
+   */
+  public int getRowCount()
+  {
+    synchronized (this.model)
+    {
+      this.model.getIndex();
+      if (null == this.getRule())
+      {
+        return this.end - this.start;
+      }
+      int count = 0;
+      for (final PointNode leaf : NodeUtil.getLeaves(this))
+      {
+        count += leaf.end - leaf.start;
+      }
+      return count;
+    }
+  }
+  
+  /**
+   * Multiplies the mass of every leaf in this subtree by the given factor
+   */
+  void scaleMass(final double factor)
+  {
+    if (null == this.getRule())
+    {
+      if (null != this.mass)
+      {
+        final double mass = this.mass.sumThenReset();
+        this.mass.add(mass * factor);
+      }
+    }
+    else
+    {
+      this.stale = true;
+      for (final PointNode child : this.getChildren())
+      {
+        if (null != child)
+        {
+          child.scaleMass(factor);
+        }
+      }
+    }
   }
   
   private List<PointNode> prepareChildren(final PartitionRule split)
@@ -82,20 +560,40 @@ public class PointNode extends NodeBase<PointNode>
       final PointNode child = new PointNode(this, volume);
       DoubleVolume newRange = (DoubleVolume) child.range.getBounds().intersect(pointRange);
       if(null == newRange) newRange = DoubleVolume.unbounded(pointRange.dimensions());
-      child.pointRange = newRange;
+      child.setPointRange(newRange);
       newChildren.add(child);
     }
-    for (final double[] point : this.getDataPoints())
+    return newChildren;
+  }
+  
+  /**
+   * Divides this node's rows among its new children, partitioning its slice of the index in place; the last child
+   * takes the free space after them. The caller holds the model's monitor.
+   */
+  private void partitionRows(final PartitionRule split, final List<PointNode> newChildren)
+  {
+    final int[] index = this.model.getIndex();
+    this.model.gather(this);
+    final double[] buffer = new double[this.getStore().dimensions()];
+    int from = this.start;
+    for (int c = 0; c < newChildren.size(); c++)
     {
-      final int childIndex = split.evaluate(point);
-      final PointNode child = newChildren.get(childIndex);
-      child.dataPoints.add(point);
+      final PointNode child = newChildren.get(c);
+      final int to = (c == newChildren.size() - 1) ? this.end : this.partition(index, from, this.end, split, c, buffer);
+      child.start = from;
+      child.end = to;
+      child.limit = (c == newChildren.size() - 1) ? this.limit : to;
+      if (null != child.mass)
+      {
+        child.mass.add(this.model.getMass(index, from, to));
+      }
+      from = to;
     }
+    this.apportionCount(newChildren);
     int nonZeroChildren = 0;
     for (final PointNode child : newChildren)
     {
-      child.dataSize = child.dataPoints.size();
-      if (0 < child.dataSize)
+      if (child.end > child.start)
       {
         nonZeroChildren++;
       }
@@ -104,7 +602,103 @@ public class PointNode extends NodeBase<PointNode>
     {
       // System.err.println("Rule does not result in a data partitioning!");
     }
-    return newChildren;
+  }
+  
+  /**
+   * Divides this node's count among its new children. When the retention policy has dropped rows, the count is
+   * pro-rated by each child's share of the retained rows, rounding by largest remainder so that the total stays exact;
+   * and so is the node's mass when weights decay. The mass is pro-rated even when the counts agree with the rows, as
+   * after earlier pro-rating and evictions that doesn't mean the mass does.
+   */
+  private void apportionCount(final List<PointNode> children)
+  {
+    final long count = this.getCount();
+    final long[] counts = this.apportion(count, children);
+    for (int c = 0; c < counts.length; c++)
+    {
+      children.get(c).dataSize.add(counts[c]);
+    }
+    if (null != this.mass)
+    {
+      // Summed over the subtree, when an internal node is split afresh
+      final double mass = this.getMass();
+      final double[] childMass = new double[children.size()];
+      double retainedMass = 0;
+      for (int c = 0; c < childMass.length; c++)
+      {
+        childMass[c] = children.get(c).mass.sumThenReset();
+        retainedMass += childMass[c];
+      }
+      for (int c = 0; c < childMass.length; c++)
+      {
+        final double share = 0 < retainedMass ? childMass[c] / retainedMass : 0 < count ? (double) counts[c] / count : 1. / childMass.length;
+        children.get(c).mass.add(mass * share);
+      }
+    }
+  }
+  
+  private long[] apportion(final long count, final List<PointNode> children)
+  {
+    final long[] counts = new long[children.size()];
+    final int rows = this.end - this.start;
+    if (count == rows)
+    {
+      for (int c = 0; c < counts.length; c++)
+      {
+        counts[c] = children.get(c).end - children.get(c).start;
+      }
+      return counts;
+    }
+    final double[] shares = new double[children.size()];
+    double total = 0;
+    for (int c = 0; c < shares.length; c++)
+    {
+      final PointNode child = children.get(c);
+      // Without any retained rows, fall back to apportioning by volume
+      shares[c] = 0 < rows ? child.end - child.start : child.range.getVolume().value;
+      total += shares[c];
+    }
+    final Integer[] order = new Integer[shares.length];
+    long remaining = count;
+    for (int c = 0; c < shares.length; c++)
+    {
+      shares[c] = 0 < total && !Double.isInfinite(total) ? count * shares[c] / total : (double) count / shares.length;
+      counts[c] = (long) Math.floor(shares[c]);
+      remaining -= counts[c];
+      order[c] = c;
+    }
+    Arrays.sort(order, (a, b) -> Double.compare(shares[b] - counts[b], shares[a] - counts[a]));
+    for (int i = 0; 0 < remaining; i = (i + 1) % order.length, remaining--)
+    {
+      counts[order[i]]++;
+    }
+    return counts;
+  }
+  
+  /**
+   * Moves the rows in index[from, to) belonging to the given partition to the front of the range, in place.
+   * @return the end of the moved rows
+   */
+  private int partition(final int[] index, final int from, final int to, final PartitionRule split, final int partition, final double[] buffer)
+  {
+    final PointStore store = this.getStore();
+    int i = from;
+    int j = to - 1;
+    while (i <= j)
+    {
+      if (partition == split.evaluate(store.get(index[i], buffer)))
+      {
+        i++;
+      }
+      else
+      {
+        final int swap = index[i];
+        index[i] = index[j];
+        index[j] = swap;
+        j--;
+      }
+    }
+    return i;
   }
   
   @Override
@@ -113,34 +707,38 @@ public class PointNode extends NodeBase<PointNode>
     if (null != rule)
     {
       final List<PointNode> prepareChildren = this.prepareChildren(rule);
-      if (null != prepareChildren)
+      // Published with their slices, before the index can be laid out again
+      synchronized (this.model)
       {
+        this.partitionRows(rule, prepareChildren);
         this.setRule(rule, prepareChildren);
       }
     }
     else
     {
-      this.clearChildren();
-      super.setRule(null);
-      this.dataPoints.inner = new ArrayList<double[]>(this.dataPoints.inner);
+      synchronized (this.model)
+      {
+        // Lay out pending rows first, and bring the subtree's rows together into this node's slice
+        this.model.getIndex();
+        this.model.gather(this);
+        final long count = this.getCount();
+        this.dataSize.reset();
+        this.dataSize.add(count);
+        if (null != this.mass)
+        {
+          final double mass = this.getMass();
+          this.mass.reset();
+          this.mass.add(mass);
+        }
+        this.setStructure(null, Collections.<PointNode> emptyList());
+      }
     }
   }
   
   private void setRule(final PartitionRule rule, final List<PointNode> children)
   {
-    this.clearChildren();
-    this.addChildren(children);
-    super.setRule(rule);
-    {
-      final List<PointNode> nodeChildren = this.getChildren();
-      @SuppressWarnings("unchecked")
-      final Collection<double[]>[] inputs = new Collection[nodeChildren.size()];
-      for (int i = 0; i < nodeChildren.size(); i++)
-      {
-        inputs[i] = nodeChildren.get(i).getDataPoints();
-      }
-      this.dataPoints.inner = new CompositeCollection<double[]>(inputs);
-    }
+    this.stale = true;
+    this.setStructure(rule, children);
   }
   
   @Override
@@ -159,15 +757,15 @@ public class PointNode extends NodeBase<PointNode>
   
   public SpacialVolume getRegion()
   {
+    return this.effectiveRegion;
+  }
+  
+  private void setPointRange(final DoubleVolume pointRange)
+  {
+    this.pointRange = pointRange;
     final SpacialVolume baseRegion = super.getRegion();
-    if(!baseRegion.isUnbounded())
-    {
-      return baseRegion;
-    }
-    else
-    {
-      return baseRegion.intersect(this.pointRange);
-    }
+    this.effectiveRegion = baseRegion.isUnbounded() ? baseRegion.intersect(pointRange) : baseRegion;
+    this.regionChanged();
   }
 
   public SpacialVolume getUnboundableRegion()
@@ -175,9 +773,10 @@ public class PointNode extends NodeBase<PointNode>
     return super.getRegion();
   }
   
-  protected boolean contains(double[] point)
+  @Override
+  SpacialVolume getRoutingRegion()
   {
-    return this.getUnboundableRegion().contains(point);
+    return this.getUnboundableRegion();
   }
 
 }
\ No newline at end of file
@@ -0,0 +1,46 @@
+package com.simiacryptus.probabilityModel.model;
+
+/**
+ * How many of its points' rows each leaf of a PointModel keeps; only the rows available to rule generation and
+ * getDataPoints() are reduced. A leaf's count, and so its weight, stays exact until it splits. A split divides the
+ * count among the children in proportion to the rows each retains, so below it counts are estimates and only their
+ * total stays exact.
+ */
+public final class RetentionPolicy
+{
+  public static final RetentionPolicy ALL  = new RetentionPolicy(Integer.MAX_VALUE);
+  public static final RetentionPolicy NONE = new RetentionPolicy(0);
+  
+  /**
+   * Keeps a uniform random sample of at most size rows per leaf
+   */
+  public static RetentionPolicy reservoir(final int size)
+  {
+    if (0 > size)
+    {
+      throw new IllegalArgumentException("Reservoir size must not be negative");
+    }
+    return new RetentionPolicy(size);
+  }
+  
+  public final int maxRows;
+  
+  private RetentionPolicy(final int maxRows)
+  {
+    this.maxRows = maxRows;
+  }
+  
+  @Override
+  public String toString()
+  {
+    if (Integer.MAX_VALUE == this.maxRows)
+    {
+      return "ALL";
+    }
+    if (0 == this.maxRows)
+    {
+      return "NONE";
+    }
+    return String.format("RESERVOIR(%s)", this.maxRows);
+  }
+}
@@ -18,6 +18,8 @@ public final class ScalarModel extends DistributionModel<ScalarNode>
   void setRoot(ScalarNode newRoot)
   {
     newRoot.setParent(null);
+    newRoot.tree = this;
     root = newRoot;
+    structureChanged();
   }
 }
\ No newline at end of file
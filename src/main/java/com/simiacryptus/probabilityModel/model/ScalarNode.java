@@ -40,11 +40,27 @@ public class ScalarNode extends NodeBase<ScalarNode>
     super(parent, region);
   }
   
+  /**
+   * A copy of node with the given region and weight, whose descendants are copied from node's only when first read
+   */
+  private ScalarNode(final NodeBase<?> node, final SpacialVolume region, final double weight)
+  {
+    super((ScalarNode) null, region);
+    this.setWeight(weight);
+    // One read, so that a concurrent split or collapse can't pair one rule with the other's children
+    final NodeBase.Structure<? extends NodeBase<?>> structure = node.getStructure();
+    final List<? extends NodeBase<?>> children = structure.children;
+    this.setLazyChildren(structure.rule, children.size(), i -> {
+      final NodeBase<?> child = children.get(i);
+      return null == child ? null : new ScalarNode(child, child.getRegion(), child.getWeight());
+    }, node.getNodeCount());
+  }
+  
   void copyChildren(final NodeBase<?> node)
   {
-    this.setRule(node.getRule());
-    final List<? extends NodeBase<?>> childrenList = node.getChildren();
-    for (final NodeBase<?> child : childrenList)
+    final NodeBase.Structure<? extends NodeBase<?>> structure = node.getStructure();
+    this.setRule(structure.rule);
+    for (final NodeBase<?> child : structure.children)
     {
       ScalarNode newChild = null;
       if (null != child)
@@ -57,12 +73,6 @@ public class ScalarNode extends NodeBase<ScalarNode>
     //assert verifyStructure();
   }
   
-  @Override
-  public VolumeMetric getVolume()
-  {
-    return this.getRegion().getVolume();
-  }
-  
   @Override
   public double getWeight()
   {
@@ -74,6 +84,7 @@ public class ScalarNode extends NodeBase<ScalarNode>
     assert (weight < 1e6);
     assert (weight >= 0);
     this.weight = weight;
+    this.weightChanged();
   }
   
   @Override
@@ -89,6 +100,89 @@ public class ScalarNode extends NodeBase<ScalarNode>
     }
   }
   
+  /**
+   * Gives what copying node and slicing the copy would, but only builds the nodes the range cuts: subtrees inside the
+   * range, and the children of cut leaves, become copies whose descendants are built when first read. Unlike
+   * slice(), single-child nodes within a copied subtree are kept rather than collapsed into their child.
+   */
+  static ScalarNode slice(final NodeBase<?> node, final DoubleVolume range)
+  {
+    final SpacialVolume previousRegion = node.getRegion();
+    if (DistributionModel.encloses(range, previousRegion.getBounds()))
+    {
+      NodeBase<?> copied = node;
+      NodeBase<?> only;
+      while (null != (only = getOnlyChild(copied)))
+      {
+        copied = only;
+      }
+      return new ScalarNode(copied, copied.getRegion(), copied.getWeight());
+    }
+    final SpacialVolume newRegion = range.intersect(previousRegion);
+    final ArrayList<ScalarNode> filteredChildren = new ArrayList<ScalarNode>();
+    ScalarNode last = null;
+    int childCount = 0;
+    final NodeBase.Structure<? extends NodeBase<?>> structure = node.getStructure();
+    for (final NodeBase<?> child : structure.children)
+    {
+      ScalarNode newChild = null;
+      if (null != child && child.getRegion().intersects(newRegion))
+      {
+        newChild = slice(child, range);
+        if (previousRegion.dimensions() > newChild.getRegion().dimensions())
+        {
+          newChild = null;
+        }
+      }
+      if (null != newChild)
+      {
+        childCount++;
+        last = newChild;
+      }
+      filteredChildren.add(newChild);
+    }
+    if (1 == childCount)
+    {
+      return last;
+    }
+    if (0 < childCount)
+    {
+      final ScalarNode newNode = new ScalarNode((ScalarNode) null, newRegion);
+      newNode.setRule(structure.rule);
+      double newWeight = 0;
+      for (final ScalarNode child : filteredChildren)
+      {
+        newNode.addChild(child);
+        if (null != child)
+        {
+          newWeight += child.getWeight();
+        }
+      }
+      newNode.setWeight(newWeight);
+      return newNode;
+    }
+    final VolumeMetric prevVolume = previousRegion.getVolume();
+    final VolumeMetric newVolume = newRegion.intersect(previousRegion).getVolume();
+    return new ScalarNode(node, newRegion, node.getWeight() * newVolume.divide(prevVolume).value);
+  }
+  
+  private static NodeBase<?> getOnlyChild(final NodeBase<?> node)
+  {
+    NodeBase<?> only = null;
+    for (final NodeBase<?> child : node.getStructure().children)
+    {
+      if (null != child)
+      {
+        if (null != only)
+        {
+          return null;
+        }
+        only = child;
+      }
+    }
+    return only;
+  }
+  
   ScalarNode slice(DoubleVolume range)
   {
     //assert verifyStructure();
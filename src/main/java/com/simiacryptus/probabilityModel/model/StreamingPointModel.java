@@ -0,0 +1,226 @@
+package com.simiacryptus.probabilityModel.model;
+
+import java.util.Arrays;
+
+import com.simiacryptus.probabilityModel.points.PointStore;
+import com.simiacryptus.probabilityModel.volume.DoubleVolume;
+
+/**
+ * A point model over an unbounded stream of time-stamped points. Points older than the window are evicted, and each
+ * point's weight halves every halfLife. Once as many points have been evicted as remain, the store is compacted, so
+ * memory stays proportional to the points within the window. Every subtree whose weight has fallen below the collapse
+ * threshold is merged back into a leaf, both after such an eviction and each time weights have halved.
+ * A retention policy limits the rows each leaf offers to rule generation, but rows it drops stay in the store until
+ * evicted, as evicting a point means finding its leaf. Below a split, counts and masses are then estimates that need
+ * not cover each point routed to a leaf; what a leaf lacks is taken off its nearest neighbours, so none goes below zero
+ * and the total stays exact.
+ * Time starts at zero and may not decrease. Writes are serialized on the model, and must not run concurrently with
+ * partitioning.
+ */
+public class StreamingPointModel extends PointModel
+{
+  // Points older than this many half-lives weigh under 2^-64, and are evicted even without a window
+  private static final double maxHalfLives    = 64;
+  // Masses are rebased before exp(decayRate * (time - massEpoch)) can overflow
+  private static final double maxMassExponent = 256;
+  private static final int    minCompaction   = 1024;
+
+  private final double        window;
+  private final double        decayRate;
+  private final double        collapseThreshold;
+  // Timestamp of each row of the store
+  private double[]            times           = new double[minCompaction];
+  private double              time            = 0;
+  private double              massEpoch       = 0;
+  // Time of the last pass collapsing light subtrees
+  private double              collapsedAt     = 0;
+
+  /**
+   * @param window the age after which points are evicted; may be infinite
+   * @param halfLife the age at which a point's weight has halved; may be infinite
+   * @param collapseThreshold the weight below which a subtree is collapsed into a leaf
+   */
+  public StreamingPointModel(final DoubleVolume range, final double window, final double halfLife, final double collapseThreshold)
+  {
+    super(range);
+    if (!(0 < window) || !(0 < halfLife))
+    {
+      throw new IllegalArgumentException("Window and half-life must be positive");
+    }
+    this.decayRate = Math.log(2) / halfLife;
+    this.window = Math.min(window, maxHalfLives * halfLife);
+    this.collapseThreshold = collapseThreshold;
+  }
+
+  @Override
+  public void addDataPoint(final double[] point)
+  {
+    this.addDataPoint(point, this.time);
+  }
+
+  public synchronized void addDataPoint(final double[] point, final double time)
+  {
+    this.setTime(time);
+    this.stampRows(1);
+    super.addDataPoint(point);
+  }
+
+  /**
+   * Adds the points at the current time
+   */
+  @Override
+  public synchronized void addDataPoints(final double[][] points)
+  {
+    this.stampRows(points.length);
+    super.addDataPoints(points);
+  }
+
+  private void stampRows(final int count)
+  {
+    final int size = this.getStore().size();
+    if (size + count > this.times.length)
+    {
+      this.times = Arrays.copyOf(this.times, Math.max(size + count, 2 * this.times.length));
+    }
+    Arrays.fill(this.times, size, size + count, this.time);
+  }
+
+  public synchronized double getTime()
+  {
+    return this.time;
+  }
+
+  /**
+   * Advances the model's clock, evicting every point that has fallen out of the window.
+   */
+  public synchronized void setTime(final double time)
+  {
+    if (time < this.time)
+    {
+      throw new IllegalArgumentException(String.format("Time may not decrease: %s < %s", time, this.time));
+    }
+    this.time = time;
+    if (this.decayRate * (this.time - this.massEpoch) > maxMassExponent)
+    {
+      this.getRoot().scaleMass(Math.exp(-this.decayRate * (this.time - this.massEpoch)));
+      this.massEpoch = this.time;
+    }
+    this.evict();
+    if (this.decayRate * (this.time - this.collapsedAt) >= Math.log(2))
+    {
+      this.collapse();
+    }
+  }
+
+  private void evict()
+  {
+    final PointStore store = this.getStore();
+    final int size = store.size();
+    final double horizon = this.time - this.window;
+    int row = this.firstLiveRow;
+    if (row >= size || this.times[row] >= horizon)
+    {
+      return;
+    }
+    final PointNode root = this.getRoot();
+    final double[] buffer = new double[store.dimensions()];
+    final double[] remaining = new double[2];
+    for (; row < size && this.times[row] < horizon; row++)
+    {
+      remaining[0] = 1;
+      remaining[1] = this.isDecaying() ? this.getRowMass(row) : 0;
+      for (PointNode node = root.getLeaf(store.get(row, buffer)); null != node && (0 < remaining[0] || 0 < remaining[1]); node = node.getParent())
+      {
+        node.takeDataSize(remaining);
+      }
+    }
+    this.firstLiveRow = row;
+    if (row >= Math.max(minCompaction, size - row))
+    {
+      this.compact();
+      this.collapse();
+    }
+  }
+
+  /**
+   * Merges every subtree whose weight has fallen below the collapse threshold back into a leaf
+   */
+  private void collapse()
+  {
+    this.collapsedAt = this.time;
+    this.collapse(this.getRoot());
+  }
+
+  private void collapse(final PointNode node)
+  {
+    if (null == node.getRule())
+    {
+      return;
+    }
+    if (node.getWeight() < this.collapseThreshold)
+    {
+      node.setRule(null);
+      return;
+    }
+    for (final PointNode child : node.getChildren())
+    {
+      if (null != child)
+      {
+        this.collapse(child);
+      }
+    }
+  }
+
+  /**
+   * Only evicted rows can be dropped; rows the retention policy dropped are still needed to evict their points
+   */
+  @Override
+  int getDroppedRows()
+  {
+    return this.firstLiveRow;
+  }
+
+  /**
+   * Drops the evicted rows from the store
+   */
+  @Override
+  synchronized void compactStore()
+  {
+    final int row = this.firstLiveRow;
+    if (0 < row)
+    {
+      final int size = this.getStore().size();
+      this.discardRows(row);
+      System.arraycopy(this.times, row, this.times, 0, size - row);
+    }
+  }
+
+  @Override
+  boolean isDecaying()
+  {
+    return 0 < this.decayRate;
+  }
+
+  @Override
+  double getRowMass(final int row)
+  {
+    return Math.exp(this.decayRate * (this.times[row] - this.massEpoch));
+  }
+
+  @Override
+  double getMass(final int[] rows, final int from, final int to)
+  {
+    double mass = 0;
+    for (int i = from; i < to; i++)
+    {
+      mass += this.getRowMass(rows[i]);
+    }
+    return mass;
+  }
+
+  @Override
+  double getMassScale()
+  {
+    return Math.exp(-this.decayRate * (this.time - this.massEpoch));
+  }
+}
@@ -0,0 +1,115 @@
+package com.simiacryptus.probabilityModel.points;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stores points in fixed-size chunks of rows, each holding a primitive array per dimension in whatever encoding the
+ * subclass chooses. Rows are reserved atomically and chunks are never reallocated, so concurrent adds only lock when a
+ * new chunk is needed.
+ * @param <C> a chunk, indexed by dimension and then by row within the chunk
+ */
+public abstract class ChunkedPointStore<C> extends PointStore
+{
+  private static final int    chunkBits = 12;
+  protected static final int  chunkSize = 1 << chunkBits;
+  private static final int    chunkMask = chunkSize - 1;
+
+  private final int           dimensions;
+  // Replaced (never modified) when a chunk is added
+  private volatile Object[]   chunks    = new Object[0];
+  private final AtomicInteger size      = new AtomicInteger();
+
+  protected ChunkedPointStore(final int dimensions)
+  {
+    super();
+    this.dimensions = dimensions;
+  }
+
+  /**
+   * A new chunk, of chunkSize rows in each dimension
+   */
+  protected abstract C newChunk();
+
+  /**
+   * Writes a point into a chunk, encoding each coordinate
+   */
+  protected abstract void encode(C chunk, int offset, double[] point);
+
+  @Override
+  public final int add(final double[] point)
+  {
+    assert (point.length == this.dimensions);
+    final int row = this.size.getAndIncrement();
+    this.set(row, point);
+    return row;
+  }
+
+  @Override
+  public final int addAll(final double[][] points)
+  {
+    final int firstRow = this.size.getAndAdd(points.length);
+    for (int i = 0; i < points.length; i++)
+    {
+      assert (points[i].length == this.dimensions);
+      this.set(firstRow + i, points[i]);
+    }
+    return firstRow;
+  }
+
+  private void set(final int row, final double[] point)
+  {
+    final int chunk = row >>> chunkBits;
+    final Object[] chunks = this.chunks;
+    this.encode(chunk < chunks.length ? this.chunkAt(chunks, chunk) : this.addChunks(chunk), row & chunkMask, point);
+  }
+
+  private synchronized C addChunks(final int chunk)
+  {
+    if (chunk >= this.chunks.length)
+    {
+      final Object[] newChunks = Arrays.copyOf(this.chunks, chunk + 1);
+      for (int c = this.chunks.length; c < newChunks.length; c++)
+      {
+        newChunks[c] = this.newChunk();
+      }
+      this.chunks = newChunks;
+    }
+    return this.chunkAt(this.chunks, chunk);
+  }
+
+  @SuppressWarnings("unchecked")
+  private C chunkAt(final Object[] chunks, final int chunk)
+  {
+    return (C) chunks[chunk];
+  }
+
+  /**
+   * The chunk holding a row that has been added
+   */
+  protected final C getChunk(final int row)
+  {
+    return this.chunkAt(this.chunks, row >>> chunkBits);
+  }
+
+  /**
+   * The row's position within its chunk
+   */
+  protected static int offset(final int row)
+  {
+    return row & chunkMask;
+  }
+
+  @Override
+  public final int dimensions()
+  {
+    return this.dimensions;
+  }
+
+  @Override
+  public final int size()
+  {
+    return this.size.get();
+  }
+
+}
@@ -0,0 +1,47 @@
+package com.simiacryptus.probabilityModel.points;
+
+/**
+ * Stores points as primitive arrays per dimension, in fixed-size chunks of rows.
+ */
+public class ColumnarPointStore extends ChunkedPointStore<double[][]>
+{
+
+  public ColumnarPointStore(final int dimensions)
+  {
+    super(dimensions);
+  }
+
+  @Override
+  protected double[][] newChunk()
+  {
+    return new double[this.dimensions()][chunkSize];
+  }
+
+  @Override
+  protected void encode(final double[][] chunk, final int offset, final double[] point)
+  {
+    for (int d = 0; d < chunk.length; d++)
+    {
+      chunk[d][offset] = point[d];
+    }
+  }
+
+  @Override
+  public double get(final int row, final int dimension)
+  {
+    return this.getChunk(row)[dimension][offset(row)];
+  }
+
+  @Override
+  public double[] get(final int row, final double[] buffer)
+  {
+    final double[][] chunk = this.getChunk(row);
+    final int offset = offset(row);
+    for (int d = 0; d < buffer.length; d++)
+    {
+      buffer[d] = chunk[d][offset];
+    }
+    return buffer;
+  }
+
+}
@@ -0,0 +1,102 @@
+package com.simiacryptus.probabilityModel.points;
+
+import com.simiacryptus.data.DoubleRange;
+import com.simiacryptus.probabilityModel.volume.DoubleVolume;
+
+/**
+ * Stores points as 16-bit fixed-point offsets within a bounded volume, for a quarter of the memory of
+ * ColumnarPointStore. Each coordinate is binned into one of 65536 equal bins across its half-open range when added,
+ * and read back as the center of its bin, so every stored point lies strictly within the volume.
+ */
+public class FixedPointStore extends ChunkedPointStore<char[][]>
+{
+  private static final int   bins = Character.MAX_VALUE + 1;
+
+  private final DoubleVolume bounds;
+  private final double[]     from;
+  private final double[]     step;
+
+  public FixedPointStore(final DoubleVolume bounds)
+  {
+    super(bounds.dimensions());
+    if (bounds.isUnbounded())
+    {
+      throw new IllegalArgumentException("Fixed-point storage needs bounded ranges");
+    }
+    this.bounds = bounds;
+    this.from = new double[bounds.dimensions()];
+    this.step = new double[bounds.dimensions()];
+    for (int d = 0; d < this.from.length; d++)
+    {
+      final DoubleRange range = bounds.get(d);
+      this.from[d] = range.from;
+      this.step[d] = (range.to - range.from) / bins;
+    }
+  }
+
+  private char quantize(final int dimension, final double value)
+  {
+    if (!this.bounds.get(dimension).contains(value))
+    {
+      throw new IllegalArgumentException(String.format("%s is outside %s in dimension %s", value, this.bounds.get(dimension), dimension));
+    }
+    // Rounding can put a value just below the top of its range into the bin above
+    return (char) Math.min(bins - 1, (long) Math.floor((value - this.from[dimension]) / this.step[dimension]));
+  }
+
+  private double unquantize(final int dimension, final char bin)
+  {
+    return this.from[dimension] + this.step[dimension] * (bin + 0.5);
+  }
+
+  @Override
+  protected char[][] newChunk()
+  {
+    return new char[this.dimensions()][chunkSize];
+  }
+
+  @Override
+  protected void encode(final char[][] chunk, final int offset, final double[] point)
+  {
+    for (int d = 0; d < chunk.length; d++)
+    {
+      chunk[d][offset] = this.quantize(d, point[d]);
+    }
+  }
+
+  @Override
+  public double get(final int row, final int dimension)
+  {
+    return this.unquantize(dimension, this.getChunk(row)[dimension][offset(row)]);
+  }
+
+  @Override
+  public double[] get(final int row, final double[] buffer)
+  {
+    final char[][] chunk = this.getChunk(row);
+    final int offset = offset(row);
+    for (int d = 0; d < buffer.length; d++)
+    {
+      buffer[d] = this.unquantize(d, chunk[d][offset]);
+    }
+    return buffer;
+  }
+
+  @Override
+  public PointStore newStore()
+  {
+    return new FixedPointStore(this.bounds);
+  }
+
+  @Override
+  public double[] round(final double[] point)
+  {
+    final double[] rounded = new double[point.length];
+    for (int d = 0; d < point.length; d++)
+    {
+      rounded[d] = this.unquantize(d, this.quantize(d, point[d]));
+    }
+    return rounded;
+  }
+
+}
@@ -0,0 +1,99 @@
+package com.simiacryptus.probabilityModel.points;
+
+import com.simiacryptus.data.DoubleRange;
+import com.simiacryptus.probabilityModel.volume.DoubleVolume;
+
+/**
+ * Stores points as 32-bit floats, laid out like ColumnarPointStore, for half the memory.
+ * Points are rounded to float precision when added, and widened back to double when read. Given the model's bounds, a
+ * value that would round onto or past a bound is kept to the nearest float within it, since ranges are half-open.
+ */
+public class FloatPointStore extends ChunkedPointStore<float[][]>
+{
+  private final DoubleVolume bounds;
+  // Per dimension: the least and greatest floats within the bounds
+  private final float[]      min;
+  private final float[]      max;
+
+  public FloatPointStore(final int dimensions)
+  {
+    this(DoubleVolume.unbounded(dimensions));
+  }
+
+  public FloatPointStore(final DoubleVolume bounds)
+  {
+    super(bounds.dimensions());
+    this.bounds = bounds;
+    this.min = new float[bounds.dimensions()];
+    this.max = new float[bounds.dimensions()];
+    for (int d = 0; d < this.min.length; d++)
+    {
+      final DoubleRange range = bounds.get(d);
+      final float from = (float) range.from;
+      final float to = (float) range.to;
+      this.min[d] = from < range.from ? Math.nextUp(from) : from;
+      this.max[d] = to < range.to ? to : Math.nextDown(to);
+    }
+  }
+
+  @Override
+  protected float[][] newChunk()
+  {
+    return new float[this.dimensions()][chunkSize];
+  }
+
+  @Override
+  protected void encode(final float[][] chunk, final int offset, final double[] point)
+  {
+    for (int d = 0; d < chunk.length; d++)
+    {
+      chunk[d][offset] = this.round(d, point[d]);
+    }
+  }
+
+  @Override
+  public double get(final int row, final int dimension)
+  {
+    return this.getChunk(row)[dimension][offset(row)];
+  }
+
+  @Override
+  public double[] get(final int row, final double[] buffer)
+  {
+    final float[][] chunk = this.getChunk(row);
+    final int offset = offset(row);
+    for (int d = 0; d < buffer.length; d++)
+    {
+      buffer[d] = chunk[d][offset];
+    }
+    return buffer;
+  }
+
+  @Override
+  public PointStore newStore()
+  {
+    return new FloatPointStore(this.bounds);
+  }
+
+  @Override
+  public double[] round(final double[] point)
+  {
+    final double[] rounded = new double[point.length];
+    for (int d = 0; d < point.length; d++)
+    {
+      rounded[d] = this.round(d, point[d]);
+    }
+    return rounded;
+  }
+
+  private float round(final int dimension, final double value)
+  {
+    final float rounded = (float) value;
+    if (!this.bounds.get(dimension).contains(value))
+    {
+      return rounded;
+    }
+    return Math.max(this.min[dimension], Math.min(this.max[dimension], rounded));
+  }
+
+}
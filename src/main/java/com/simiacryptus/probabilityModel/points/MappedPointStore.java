@@ -0,0 +1,92 @@
+package com.simiacryptus.probabilityModel.points;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only store over a flat file of little-endian doubles, one row of dimensions() values after another.
+ * The file is memory mapped in segments of under 2GB each, so rows are read in place and never copied onto the heap.
+ */
+public class MappedPointStore extends PointStore
+{
+  private final int            dimensions;
+  private final int            rowsPerSegment;
+  private final DoubleBuffer[] segments;
+  private final int            size;
+
+  public MappedPointStore(final File file, final int dimensions) throws IOException
+  {
+    super();
+    this.dimensions = dimensions;
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+    {
+      final long rowBytes = 8l * dimensions;
+      if (0 != channel.size() % rowBytes)
+      {
+        throw new IllegalArgumentException(String.format("%s is not a whole number of %s-dimensional rows", file, dimensions));
+      }
+      final long rows = channel.size() / rowBytes;
+      if (rows > Integer.MAX_VALUE)
+      {
+        throw new IllegalArgumentException(String.format("%s has more than %s rows", file, Integer.MAX_VALUE));
+      }
+      this.size = (int) rows;
+      this.rowsPerSegment = (int) (Integer.MAX_VALUE / rowBytes);
+      this.segments = new DoubleBuffer[(int) ((rows + this.rowsPerSegment - 1) / this.rowsPerSegment)];
+      for (int s = 0; s < this.segments.length; s++)
+      {
+        final long firstRow = (long) s * this.rowsPerSegment;
+        final long segmentRows = Math.min(this.rowsPerSegment, rows - firstRow);
+        this.segments[s] = channel.map(MapMode.READ_ONLY, firstRow * rowBytes, segmentRows * rowBytes).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+      }
+    }
+  }
+
+  @Override
+  public int add(final double[] point)
+  {
+    throw new UnsupportedOperationException("Mapped point stores are read-only");
+  }
+
+  @Override
+  public int addAll(final double[][] points)
+  {
+    throw new UnsupportedOperationException("Mapped point stores are read-only");
+  }
+
+  @Override
+  public int dimensions()
+  {
+    return this.dimensions;
+  }
+
+  @Override
+  public double get(final int row, final int dimension)
+  {
+    return this.segments[row / this.rowsPerSegment].get((row % this.rowsPerSegment) * this.dimensions + dimension);
+  }
+
+  @Override
+  public double[] get(final int row, final double[] buffer)
+  {
+    final DoubleBuffer segment = this.segments[row / this.rowsPerSegment];
+    final int offset = (row % this.rowsPerSegment) * this.dimensions;
+    for (int d = 0; d < buffer.length; d++)
+    {
+      buffer[d] = segment.get(offset + d);
+    }
+    return buffer;
+  }
+
+  @Override
+  public int size()
+  {
+    return this.size;
+  }
+
+}
@@ -0,0 +1,63 @@
+package com.simiacryptus.probabilityModel.points;
+
+/**
+ * Model-wide storage of data points, addressed by row number.
+ * Nodes refer to rows instead of holding their own point objects.
+ */
+public abstract class PointStore
+{
+
+  public abstract int add(double[] point);
+
+  /**
+   * Appends a batch of points to consecutive rows.
+   * @return the row of the first point
+   */
+  public synchronized int addAll(final double[][] points)
+  {
+    final int firstRow = this.size();
+    for (final double[] point : points)
+    {
+      this.add(point);
+    }
+    return firstRow;
+  }
+
+  public abstract int dimensions();
+
+  public abstract double get(int row, int dimension);
+
+  public double[] get(final int row, final double[] buffer)
+  {
+    for (int d = 0; d < buffer.length; d++)
+    {
+      buffer[d] = this.get(row, d);
+    }
+    return buffer;
+  }
+
+  public double[] getPoint(final int row)
+  {
+    return this.get(row, new double[this.dimensions()]);
+  }
+
+  /**
+   * An empty, writable store of the same kind, into which rows are copied when the store is compacted
+   */
+  public PointStore newStore()
+  {
+    return new ColumnarPointStore(this.dimensions());
+  }
+
+  /**
+   * The point as it will read back once stored; reduced-precision stores round it, so that points are routed through
+   * the tree with the same coordinates that later splits will see.
+   */
+  public double[] round(final double[] point)
+  {
+    return point;
+  }
+
+  public abstract int size();
+
+}
@@ -83,8 +83,7 @@ public class MetricRuleGenerator implements RuleGenerator
   
   public RuleCandidate getRuleCandidate(final PointNode node, final Metric metric)
   {
-    double[][] dataPoints = node.getDataPoints().toArray(new double[][] {});
-    final double[] sortedMetricValues = this.getSortedMetricValues(dataPoints, metric);
+    final double[] sortedMetricValues = this.getSortedMetricValues(metric.evaluate(node.getStore(), node.getRows()));
     final VolumeInfo metricVolumes = this.getSortedMetricVolumes(node.getRegion(), metric, sortedMetricValues);
     if (null == metricVolumes)
     {
@@ -98,20 +97,13 @@ public class MetricRuleGenerator implements RuleGenerator
   
   protected double[] getSortedMetricValues(final double[][] dataPoints, final Metric metric)
   {
-    final double[] metricValues = metric.evaluate(dataPoints);
-    final int[] metricValueIndex = new int[dataPoints.length];
-    for (int i = 0; i < metricValues.length; i++)
-    {
-      metricValueIndex[i] = i;
-    }
-    JvmArrays.sort(metricValueIndex, new Comparator<Integer>() {
-      @Override
-      public int compare(final Integer o1, final Integer o2)
-      {
-        return Double.compare(metricValues[o1], metricValues[o2]);
-      }
-    });
-    final double[] sortedMetricValues = JvmArrays.lookup(metricValueIndex, metricValues);
+    return this.getSortedMetricValues(metric.evaluate(dataPoints));
+  }
+
+  protected double[] getSortedMetricValues(final double[] metricValues)
+  {
+    final double[] sortedMetricValues = Arrays.copyOf(metricValues, metricValues.length);
+    Arrays.sort(sortedMetricValues);
     return sortedMetricValues;
   }
   
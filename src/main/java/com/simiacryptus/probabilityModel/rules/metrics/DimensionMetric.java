@@ -3,6 +3,8 @@ package com.simiacryptus.probabilityModel.rules.metrics;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import com.simiacryptus.probabilityModel.points.PointStore;
+
 public class DimensionMetric extends Metric
 {
   
@@ -19,6 +21,17 @@ public class DimensionMetric extends Metric
   {
     return point[this.dimension];
   }
+
+  @Override
+  public double[] evaluate(final PointStore store, final int[] rows)
+  {
+    final double[] values = new double[rows.length];
+    for (int i = 0; i < values.length; i++)
+    {
+      values[i] = store.get(rows[i], this.dimension);
+    }
+    return values;
+  }
   
   @Override
   public JSONObject toJson() throws JSONException
@@ -3,6 +3,7 @@ package com.simiacryptus.probabilityModel.rules.metrics;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import com.simiacryptus.probabilityModel.points.PointStore;
 
 public abstract class Metric
 {
@@ -24,7 +25,18 @@ public abstract class Metric
     }
     return values;
   }
-  
+
+  public double[] evaluate(final PointStore store, final int[] rows)
+  {
+    final double[] values = new double[rows.length];
+    final double[] buffer = new double[store.dimensions()];
+    for (int i = 0; i < values.length; i++)
+    {
+      values[i] = this.evaluate(store.get(rows[i], buffer));
+    }
+    return values;
+  }
+
   public abstract JSONObject toJson() throws JSONException;
   
 }
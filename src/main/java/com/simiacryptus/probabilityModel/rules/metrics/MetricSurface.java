@@ -134,8 +134,8 @@ public class MetricSurface
   
   private void updateModel(final PointModel model)
   {
-    if (0 == model.getDataPoints().size()) return;
-    new ModelPartitioner(new RoundRobinRuleGenerator()).setMinPointThreshold(10).setRewriteRules(false).visit(model, Integer.MAX_VALUE);
+    if (0 == model.getWeight()) return;
+    new ModelPartitioner(new RoundRobinRuleGenerator()).setMinPointThreshold(10).setRewriteRules(false).visitDirtyLeaves(model, Integer.MAX_VALUE);
     if (DEBUG > 0)
     {
       LOG.d("Updated model (%s nodes; %s points)", model.getNodeCount(), model.getWeight());
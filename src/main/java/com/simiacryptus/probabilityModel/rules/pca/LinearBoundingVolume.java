@@ -157,6 +157,11 @@ public class LinearBoundingVolume
     return multiply(toCoords, new ArrayRealVector(transformedBounds.sample())).toArray();
   }
 
+  public double[] sample(final SplittableRandom random)
+  {
+    return multiply(toCoords, new ArrayRealVector(transformedBounds.sample(random))).toArray();
+  }
+
   public VolumeMetric getVolume()
   {
     return this.volume;
@@ -1,6 +1,7 @@
 package com.simiacryptus.probabilityModel.rules.pca;
 
 import java.util.Iterator;
+import java.util.SplittableRandom;
 
 import javax.naming.OperationNotSupportedException;
 
@@ -13,6 +14,7 @@ import com.simiacryptus.data.DoubleRange;
 import com.simiacryptus.data.VolumeMetric;
 import com.simiacryptus.lang.NotImplementedException;
 import com.simiacryptus.probabilityModel.volume.DoubleVolume;
+import com.simiacryptus.probabilityModel.volume.Polytope;
 import com.simiacryptus.probabilityModel.volume.SpacialVolume;
 import com.simiacryptus.util.ObjectUtil;
 
@@ -28,6 +30,8 @@ public class LinearVolume implements SpacialVolume
   private int matchedPoints = 0;
   private LinearMetric metric;
   private DoubleRange metricRange;
+  private Polytope polytope;
+  private boolean isPolytopeBuilt = false;
   
   public static LinearBoundingVolume getBoundingBox(SpacialVolume volume)
   {
@@ -37,7 +41,13 @@ public class LinearVolume implements SpacialVolume
     }
     else
     {
-      return new LinearBoundingVolume(volume.getBounds());
+      final DoubleVolume bounds = volume.getBounds();
+      for(final DoubleRange range : bounds)
+      {
+        // An empty cell, as when a split falls on the edge of its parent, has no bounding box
+        if(0 == range.size()) return null;
+      }
+      return new LinearBoundingVolume(bounds);
     }
   }
 
@@ -54,6 +64,10 @@ public class LinearVolume implements SpacialVolume
     linearVolume.vector = metric.eigenvector;
     linearVolume.bounds = new DoubleRange(metricRange.from + offset, metricRange.to + offset);
     final LinearBoundingVolume rangeBound = getBoundingBox(range);
+    if(null == rangeBound)
+    {
+      return null;
+    }
     linearVolume.boundingBox = rangeBound.slice(linearVolume.vector, linearVolume.bounds);
     if(null == linearVolume.boundingBox)
     {
@@ -70,6 +84,21 @@ public class LinearVolume implements SpacialVolume
     return true;
   }
   
+  @Override
+  public synchronized LinearVolume copy()
+  {
+    final LinearVolume copy = LinearVolume.intersect(parent.copy(), metric, metricRange);
+    copy.isZeroVolume = isZeroVolume;
+    copy.sampledPoints = sampledPoints;
+    copy.matchedPoints = matchedPoints;
+    if(isPolytopeBuilt)
+    {
+      copy.polytope = null == polytope ? null : polytope.copy();
+      copy.isPolytopeBuilt = true;
+    }
+    return copy;
+  }
+  
   @Override
   public int dimensions()
   {
@@ -88,9 +117,18 @@ public class LinearVolume implements SpacialVolume
     return getBounds().get(d);
   }
   
+  /**
+   * Taken from the cell's polytope when it has one; otherwise estimated from the fraction of draws from the bounding
+   * box that land in the cell.
+   */
   @Override
   public VolumeMetric getVolume()
   {
+    final Polytope polytope = getPolytope();
+    if(null != polytope)
+    {
+      return new VolumeMetric(polytope.getVolume(), dimensions());
+    }
     VolumeMetric volumeScalar = boundingBox.getVolume();
     if(sampledPoints > 0)
     {
@@ -148,18 +186,65 @@ public class LinearVolume implements SpacialVolume
     };
   }
   
+  @Override
+  public synchronized Polytope getPolytope()
+  {
+    if(!isPolytopeBuilt)
+    {
+      final Polytope parentPolytope = parent.getPolytope();
+      polytope = null == parentPolytope ? null : parentPolytope.intersect(vector.toArray(), bounds);
+      isPolytopeBuilt = true;
+    }
+    return polytope;
+  }
+  
+  /**
+   * Drawn from the cell's polytope when it has one, which can't stall on a thin cell; otherwise by rejection from the
+   * bounding box, every draw counting toward the volume estimate.
+   */
   @Override
   public double[] sample()
   {
-    double[] p;
-    do{
+    final Polytope polytope = getPolytope();
+    while(null == polytope)
+    {
       sampledPoints++;
-      p = boundingBox.sample();
-    } while(!parent.contains(p));
-    matchedPoints++;
+      final double[] p = boundingBox.sample();
+      if(parent.contains(p))
+      {
+        matchedPoints++;
+        return p;
+      }
+    }
+    final double[] p = polytope.sample(DoubleVolume.random);
+    if(null == p)
+    {
+      isZeroVolume = true;
+    }
     return p;
   }
   
+  /**
+   * As sample(), but the rejections don't count toward the volume estimate, which would make it depend on the caller
+   */
+  @Override
+  public double[] sample(final SplittableRandom random)
+  {
+    final Polytope polytope = getPolytope();
+    if(null != polytope)
+    {
+      return polytope.sample(random);
+    }
+    while(true)
+    {
+      final double[] p = boundingBox.sample(random);
+      if(parent.contains(p))
+      {
+        return p;
+      }
+    }
+  }
+  
   @Override
   public JSONObject toJson() throws JSONException
   {
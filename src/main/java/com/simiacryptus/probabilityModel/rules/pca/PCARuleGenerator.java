@@ -13,6 +13,7 @@ import org.apache.commons.math3.linear.RealVector;
 import org.apache.commons.math3.stat.correlation.Covariance;
 
 import com.simiacryptus.probabilityModel.model.PointNode;
+import com.simiacryptus.probabilityModel.points.PointStore;
 import com.simiacryptus.probabilityModel.rules.MetricRuleGenerator;
 import com.simiacryptus.probabilityModel.rules.PartitionRule;
 import com.simiacryptus.probabilityModel.rules.fitness.SplitFitness;
@@ -31,23 +32,29 @@ public class PCARuleGenerator extends MetricRuleGenerator
   {
     final ArrayList<Metric> list = new ArrayList<Metric>();
     list.addAll(super.getCandidateMetrics(node));
-    final double[][] dataPoints = node.getDataPoints().toArray(new double[][]{});
-    if(dataPoints.length < 10) return list;
+    final PointStore store = node.getStore();
+    final int[] rows = node.getRows();
+    if(rows.length < 10) return list;
+    final int dimensions = store.dimensions();
     final RealVector centroid;
     {
-      RealVector sum = null;
-      for(int i=0;i<dataPoints.length;i++)
+      final double[] sum = new double[dimensions];
+      for(int i=0;i<rows.length;i++)
       {
-        final ArrayRealVector v = new ArrayRealVector(dataPoints[i]);
-        sum = (null == sum)?v:sum.add(v);
+        for(int d=0;d<dimensions;d++)
+        {
+          sum[d] += store.get(rows[i], d);
+        }
       }
-      centroid = sum.mapDivide(dataPoints.length);
+      centroid = new ArrayRealVector(sum).mapDivide(rows.length);
     }
-    final RealMatrix dataMatrix = MatrixUtils.createRealMatrix(dataPoints.length, centroid.getDimension());
-    for(int i=0;i<dataPoints.length;i++)
+    final RealMatrix dataMatrix = MatrixUtils.createRealMatrix(rows.length, dimensions);
+    for(int i=0;i<rows.length;i++)
     {
-      final ArrayRealVector v = new ArrayRealVector(dataPoints[i]);
-      dataMatrix.setRowVector(i, v.subtract(centroid));
+      for(int d=0;d<dimensions;d++)
+      {
+        dataMatrix.setEntry(i, d, store.get(rows[i], d) - centroid.getEntry(d));
+      }
     }
     final Covariance covariance = new Covariance(dataMatrix, false);
     final EigenDecomposition eigenDecomposition = new EigenDecomposition(covariance.getCovarianceMatrix());
@@ -0,0 +1,142 @@
+package com.simiacryptus.probabilityModel.unit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.simiacryptus.data.DoubleRange;
+import com.simiacryptus.probabilityModel.model.PointModel;
+import com.simiacryptus.probabilityModel.model.PointNode;
+import com.simiacryptus.probabilityModel.rules.fitness.VolumeEntropySplitFitness;
+import com.simiacryptus.probabilityModel.visitors.ModelPartitioner;
+import com.simiacryptus.probabilityModel.volume.DoubleVolume;
+import com.simiacryptus.util.TestUtil;
+
+public class CompiledTreeTest
+{
+  private static final DoubleVolume range = new DoubleVolume(new DoubleRange(0, 1), new DoubleRange(0, 1), new DoubleRange(0, 1));
+
+  private static void assertLookupsAgree(final PointModel model, final Random random)
+  {
+    for (int i = 0; i < 10000; i++)
+    {
+      final double[] point = { random.nextDouble(), random.nextDouble(), random.nextDouble() };
+      Assert.assertSame(model.getRoot().getLeaf(point), model.getLeaf(point));
+    }
+  }
+
+  @Test
+  public void testLookupsAgree()
+  {
+    final Random random = new Random(1);
+    final PointModel model = TestUtil.newSkewedModel(range, random, 5000);
+    new ModelPartitioner(new VolumeEntropySplitFitness()).visit(model, Integer.MAX_VALUE);
+    Assert.assertTrue(1 < model.getNodeCount());
+    // Stale: answered by walking the nodes while the rebuild runs
+    assertLookupsAgree(model, random);
+    ForkJoinPool.commonPool().awaitQuiescence(1, TimeUnit.MINUTES);
+    // Compiled
+    assertLookupsAgree(model, random);
+    // Stale again after further splits
+    for (int i = 0; i < 5000; i++)
+    {
+      model.addDataPoint(new double[] { random.nextDouble(), random.nextDouble(), random.nextDouble() });
+    }
+    new ModelPartitioner(new VolumeEntropySplitFitness()).visit(model, Integer.MAX_VALUE);
+    assertLookupsAgree(model, random);
+    ForkJoinPool.commonPool().awaitQuiescence(1, TimeUnit.MINUTES);
+    assertLookupsAgree(model, random);
+  }
+
+  @Test
+  public void testReadersDontTakeTheModelMonitor() throws Exception
+  {
+    final Random random = new Random(2);
+    final PointModel model = TestUtil.newSkewedModel(range, random, 5000);
+    new ModelPartitioner(new VolumeEntropySplitFitness()).visit(model, Integer.MAX_VALUE);
+    final CountDownLatch isHeld = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final Thread holder = new Thread(() -> {
+      synchronized (model)
+      {
+        isHeld.countDown();
+        try
+        {
+          release.await();
+        }
+        catch (final InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    holder.start();
+    isHeld.await();
+    final ExecutorService reader = Executors.newSingleThreadExecutor();
+    try
+    {
+      // The structure changed since the last query, so these run against a stale compiled tree
+      final Future<?> queries = reader.submit(() -> assertLookupsAgree(model, new Random(3)));
+      queries.get(1, TimeUnit.MINUTES);
+    }
+    finally
+    {
+      release.countDown();
+      reader.shutdown();
+      holder.join();
+    }
+  }
+
+  @Test
+  public void testReadsDuringSplits() throws Exception
+  {
+    final Random random = new Random(4);
+    final PointModel model = TestUtil.newSkewedModel(range, random, 20000);
+    final AtomicBoolean isSplitting = new AtomicBoolean(true);
+    final ExecutorService readers = Executors.newFixedThreadPool(2);
+    final List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+    for (int i = 0; i < 2; i++)
+    {
+      final long seed = i;
+      results.add(readers.submit(() -> {
+        final Random r = new Random(seed);
+        int queries = 0;
+        while (isSplitting.get() || 0 == queries)
+        {
+          final double[] point = { r.nextDouble(), r.nextDouble(), r.nextDouble() };
+          final PointNode leaf = model.getLeaf(point);
+          Assert.assertNotNull(leaf);
+          Assert.assertTrue(leaf.getRegion().contains(point));
+          queries++;
+        }
+        return queries;
+      }));
+    }
+    try
+    {
+      new ModelPartitioner(new VolumeEntropySplitFitness()).visit(model, Integer.MAX_VALUE);
+    }
+    finally
+    {
+      isSplitting.set(false);
+      readers.shutdown();
+    }
+    for (final Future<Integer> result : results)
+    {
+      Assert.assertTrue(0 < result.get(1, TimeUnit.MINUTES));
+    }
+    ForkJoinPool.commonPool().awaitQuiescence(1, TimeUnit.MINUTES);
+    assertLookupsAgree(model, random);
+  }
+}
@@ -0,0 +1,424 @@
+package com.simiacryptus.probabilityModel.unit;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.function.Supplier;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.simiacryptus.data.DoubleRange;
+import com.simiacryptus.data.RealFunction;
+import com.simiacryptus.probabilityModel.Distribution;
+import com.simiacryptus.probabilityModel.ModelSampler;
+import com.simiacryptus.probabilityModel.distributions.DistributionBase;
+import com.simiacryptus.probabilityModel.model.DistributionModel;
+import com.simiacryptus.probabilityModel.model.NodeBase;
+import com.simiacryptus.probabilityModel.model.NodeUtil;
+import com.simiacryptus.probabilityModel.model.PointModel;
+import com.simiacryptus.probabilityModel.model.PointNode;
+import com.simiacryptus.probabilityModel.model.ScalarModel;
+import com.simiacryptus.probabilityModel.model.ScalarNode;
+import com.simiacryptus.probabilityModel.model.StreamingPointModel;
+import com.simiacryptus.probabilityModel.rules.fitness.VolumeEntropySplitFitness;
+import com.simiacryptus.probabilityModel.visitors.ModelPartitioner;
+import com.simiacryptus.probabilityModel.volume.DoubleVolume;
+import com.simiacryptus.util.TestUtil;
+
+public class DistributionModelTest
+{
+  private static final DoubleVolume range = new DoubleVolume(new DoubleRange(0, 1), new DoubleRange(0, 1), new DoubleRange(0, 1));
+
+  private static PointModel newModel(final DoubleVolume range, final Random random, final int count)
+  {
+    final PointModel model = TestUtil.newSkewedModel(range, random, count);
+    new ModelPartitioner(new VolumeEntropySplitFitness()).visit(model, Integer.MAX_VALUE);
+    return model;
+  }
+
+  /**
+   * A box with each side drawn from [-0.5, 1.5), so that some reach outside the model
+   */
+  private static DoubleVolume randomBox(final Random random)
+  {
+    final DoubleRange[] ranges = new DoubleRange[3];
+    for (int d = 0; d < ranges.length; d++)
+    {
+      final double a = 2 * random.nextDouble() - 0.5;
+      final double b = 2 * random.nextDouble() - 0.5;
+      ranges[d] = new DoubleRange(Math.min(a, b), Math.max(a, b));
+    }
+    return new DoubleVolume(ranges);
+  }
+
+  private static int countNodes(final NodeBase<?> node)
+  {
+    int count = 1;
+    for (final NodeBase<?> child : node.getChildren())
+    {
+      if (null != child)
+      {
+        count += countNodes(child);
+      }
+    }
+    return count;
+  }
+
+  private static double volume(final DoubleVolume box)
+  {
+    double volume = 1;
+    for (int d = 0; d < box.size(); d++)
+    {
+      volume *= box.get(d).size();
+    }
+    return volume;
+  }
+
+  /**
+   * Each leaf is drawn about as often as its share of the weight says, to within five standard deviations
+   */
+  private static void assertFrequencies(final PointModel model, final Supplier<PointNode> sampler, final int count)
+  {
+    final Map<PointNode, int[]> counts = new IdentityHashMap<PointNode, int[]>();
+    for (int i = 0; i < count; i++)
+    {
+      counts.computeIfAbsent(sampler.get(), leaf -> new int[1])[0]++;
+    }
+    final List<PointNode> leaves = NodeUtil.getLeaves(model.getRoot());
+    int drawn = 0;
+    for (final PointNode leaf : leaves)
+    {
+      final int[] n = counts.get(leaf);
+      final double p = leaf.getWeight() / model.getWeight();
+      if (0 == p)
+      {
+        Assert.assertNull(n);
+        continue;
+      }
+      final double expected = count * p;
+      Assert.assertEquals(expected, null == n ? 0 : n[0], 5 * Math.sqrt(expected * (1 - p)) + 1);
+      drawn += null == n ? 0 : n[0];
+    }
+    // Only the model's current leaves are drawn
+    Assert.assertEquals(count, drawn);
+  }
+
+  private static void assertClose(final double expected, final double actual)
+  {
+    Assert.assertEquals(expected, actual, 1e-9 * Math.max(1, Math.abs(expected)));
+  }
+
+  @Test
+  public void testGetMass()
+  {
+    final Random random = new Random(1);
+    // Bounded, and unbounded so that leaves reach to +/-Double.MAX_VALUE
+    for (final DoubleVolume range : new DoubleVolume[] { range, new DoubleVolume(3) })
+    {
+      final PointModel model = newModel(range, random, 5000);
+      Assert.assertTrue(1 < model.getNodeCount());
+      for (int i = 0; i < 200; i++)
+      {
+        final DoubleVolume box = randomBox(random);
+        if (model.getRegion().intersects(box))
+        {
+          assertClose(model.slice(box).getWeight(), model.getMass(box));
+        }
+        else
+        {
+          Assert.assertEquals(0., model.getMass(box));
+        }
+      }
+      Assert.assertEquals(model.getWeight(), model.getMass(range));
+    }
+  }
+
+  @Test
+  public void testSliceViews()
+  {
+    final Random random = new Random(2);
+    final PointModel model = newModel(range, random, 5000);
+    for (int i = 0; i < 50; i++)
+    {
+      final DoubleVolume box = randomBox(random);
+      if (!model.getRegion().intersects(box))
+      {
+        continue;
+      }
+      final ScalarModel slice = model.slice(box);
+      // Counted before anything below the cut is built, then by building it all
+      final int nodeCount = slice.getNodeCount();
+      Assert.assertEquals(nodeCount, countNodes(slice.getRoot()));
+      double weight = 0;
+      for (final ScalarNode leaf : NodeUtil.getLeaves(slice.getRoot()))
+      {
+        final DoubleVolume bounds = leaf.getRegion().getBounds();
+        final double[] center = new double[bounds.size()];
+        for (int d = 0; d < center.length; d++)
+        {
+          final DoubleRange side = bounds.get(d);
+          Assert.assertTrue(box.get(d).from <= side.from && side.to <= box.get(d).to);
+          center[d] = (side.from + side.to) / 2;
+        }
+        // The part of the model's leaf within the box, pro-rated by volume
+        final PointNode source = model.getLeaf(center);
+        assertClose(source.getWeight() * volume(bounds) / volume(source.getRegion().getBounds()), leaf.getWeight());
+        weight += leaf.getWeight();
+      }
+      assertClose(slice.getWeight(), weight);
+      // As slicing a full copy of the model would give
+      assertClose(model.copy().slice(box).getWeight(), slice.getWeight());
+    }
+  }
+
+  @Test
+  public void testProject()
+  {
+    final PointModel model = newModel(range, new Random(3), 5000);
+    // Sensitive to each piece's region as well as its weight
+    final DistributionModel.ProjectionNodeFunction fn = nodes -> {
+      double value = 0;
+      for (final ScalarNode node : nodes)
+      {
+        final DoubleRange side = node.getRegion().getBounds().get(0);
+        value += node.getWeight() * (1 + side.from + side.to);
+      }
+      return value;
+    };
+    for (final int[] dimensions : new int[][] { { 1 }, { 0, 2 } })
+    {
+      final List<ScalarNode> projected = NodeUtil.getLeaves(model.project(fn, dimensions).getRoot());
+      // Both projections share the same tree of projected leaves
+      final List<ScalarNode> marginal = NodeUtil.getLeaves(model.project(dimensions).getRoot());
+      Assert.assertEquals(projected.size(), marginal.size());
+      double weight = 0;
+      for (int i = 0; i < projected.size(); i++)
+      {
+        final DoubleVolume box = projected.get(i).getRegion().getBounds();
+        Assert.assertEquals(box, marginal.get(i).getRegion().getBounds());
+        // Each projected leaf given the leaves of the model sliced to it, as before projecting took one pass
+        final ScalarNode[] pieces = NodeUtil.getLeaves(model.slice(box).getRoot()).toArray(new ScalarNode[] {});
+        assertClose(fn.evaluate(pieces), projected.get(i).getWeight());
+        assertClose(model.getMass(box), marginal.get(i).getWeight());
+        weight += marginal.get(i).getWeight();
+      }
+      assertClose(model.getWeight(), weight);
+    }
+  }
+
+  @Test
+  public void testEvaluate()
+  {
+    final Random random = new Random(4);
+    final PointModel left = newModel(range, random, 5000);
+    final PointModel right = new PointModel(range);
+    for (int i = 0; i < 5000; i++)
+    {
+      right.addDataPoint(new double[] { random.nextDouble(), random.nextDouble(), random.nextDouble() * random.nextDouble() });
+    }
+    new ModelPartitioner(new VolumeEntropySplitFitness()).visit(right, Integer.MAX_VALUE);
+    // Weights of a scalar model can't be negative
+    final DistributionModel.BinaryNodeFunction f = (l, r, volume) -> l * r / (1 + l + r) + volume.value;
+    final ScalarModel result = left.evaluate(f, right);
+    double volume = 0;
+    double weight = 0;
+    for (final ScalarNode leaf : NodeUtil.getLeaves(result.getRoot()))
+    {
+      // Both models sliced to the leaf, as evaluate() took them before merging their splits
+      final DoubleVolume box = leaf.getRegion().getBounds();
+      assertClose(f.evaluate(left.slice(box).getWeight(), right.slice(box).getWeight(), leaf.getRegion().getVolume()), leaf.getWeight());
+      volume += volume(box);
+      weight += leaf.getWeight();
+    }
+    // The leaves tile the range
+    assertClose(1, volume);
+    assertClose(weight, result.getWeight());
+  }
+
+  @Test
+  public void testCdfAndQuantile()
+  {
+    final Random random = new Random(5);
+    final PointModel model = newModel(range, random, 5000);
+    for (int d = 0; d < 3; d++)
+    {
+      Assert.assertEquals(0., model.cdf(d, 0));
+      Assert.assertEquals(1., model.cdf(d, 1), 1e-12);
+      for (int i = 0; i < 200; i++)
+      {
+        final double x = random.nextDouble();
+        final double p = model.cdf(d, x);
+        // The weight below x, with each leaf's spread evenly across its extent
+        final DoubleVolume below = new DoubleVolume(range);
+        below.set(d, new DoubleRange(0, x));
+        assertClose(model.getMass(below) / model.getWeight(), p);
+        Assert.assertEquals(x, model.quantile(d, p), 1e-9);
+        Assert.assertEquals(p, model.cdf(d, model.quantile(d, p)), 1e-9);
+      }
+    }
+  }
+
+  /**
+   * Asserts that the model's cdf and quantiles are those of a copy, whose marginals are built afresh
+   */
+  private static void assertMarginals(final DistributionModel<?> model, final Random random)
+  {
+    final ScalarModel copy = model.copy();
+    for (int d = 0; d < 3; d++)
+    {
+      for (int i = 0; i < 20; i++)
+      {
+        final double x = random.nextDouble();
+        Assert.assertEquals(copy.cdf(d, x), model.cdf(d, x), 1e-9);
+        Assert.assertEquals(copy.quantile(d, x), model.quantile(d, x), 1e-9);
+      }
+    }
+  }
+
+  @Test
+  public void testCdfFollowsWeights()
+  {
+    final Random random = new Random(11);
+    final PointModel model = newModel(range, random, 5000);
+    final StreamingPointModel streaming = new StreamingPointModel(range, Double.POSITIVE_INFINITY, 100, 0);
+    for (int i = 0; i < 5000; i++)
+    {
+      final double x = random.nextDouble();
+      streaming.addDataPoint(new double[] { x, x * x * random.nextDouble(), random.nextDouble() }, i / 10.);
+    }
+    new ModelPartitioner(new VolumeEntropySplitFitness()).visit(streaming, Integer.MAX_VALUE);
+    // Each point moves one leaf's share of the weight between queries, and the streaming model's weights decay too
+    for (int i = 0; i < 2000; i++)
+    {
+      final double[] point = { random.nextDouble(), random.nextDouble(), random.nextDouble() };
+      model.addDataPoint(point);
+      streaming.addDataPoint(point, 500 + i / 10.);
+      if (0 == i % 100)
+      {
+        assertMarginals(model, random);
+        assertMarginals(streaming, random);
+      }
+      else
+      {
+        model.cdf(i % 3, random.nextDouble());
+        streaming.quantile(i % 3, random.nextDouble());
+      }
+    }
+  }
+
+  @Test
+  public void testConditionalDensity()
+  {
+    final Random random = new Random(6);
+    final PointModel model = newModel(range, random, 5000);
+    final int steps = 10000;
+    for (int d = 0; d < 3; d++)
+    {
+      final double[] point = { random.nextDouble(), random.nextDouble(), random.nextDouble() };
+      double integral = 0;
+      for (int i = 0; i < steps; i++)
+      {
+        point[d] = (i + 0.5) / steps;
+        integral += model.conditionalDensity(d, point) / steps;
+      }
+      Assert.assertEquals(1., integral, 1e-2);
+    }
+  }
+
+  @Test
+  public void testSampleLeafFrequencies()
+  {
+    final Random random = new Random(7);
+    final PointModel model = newModel(range, random, 5000);
+    Assert.assertTrue(10 < NodeUtil.getLeaves(model.getRoot()).size());
+    final Random r = new Random(8);
+    assertFrequencies(model, () -> model.sampleLeaf(r), 200000);
+    final SplittableRandom s = new SplittableRandom(9);
+    assertFrequencies(model, () -> model.sampleLeaf(s), 200000);
+    // The table follows the model as it changes
+    for (int i = 0; i < 5000; i++)
+    {
+      model.addDataPoint(new double[] { random.nextDouble(), random.nextDouble(), random.nextDouble() });
+    }
+    assertFrequencies(model, () -> model.sampleLeaf(r), 200000);
+    new ModelPartitioner(new VolumeEntropySplitFitness()).visit(model, Integer.MAX_VALUE);
+    assertFrequencies(model, () -> model.sampleLeaf(r), 200000);
+  }
+
+  /**
+   * Asserts that the distribution's batch densities are its per-point ones, and leaves the rest of the buffer alone
+   */
+  private static void assertBatchDensity(final Distribution distribution, final double[][] points)
+  {
+    final RealFunction density = distribution.getDensity();
+    final double[] densities = new double[points.length + 1];
+    densities[points.length] = -1;
+    distribution.getDensity(points, densities);
+    for (int i = 0; i < points.length; i++)
+    {
+      Assert.assertEquals(density.evaluate(points[i])[0], densities[i]);
+    }
+    Assert.assertEquals(-1., densities[points.length]);
+    distribution.getDensity(new double[0][], new double[0]);
+    try
+    {
+      distribution.getDensity(points, new double[points.length - 1]);
+      Assert.fail();
+    }
+    catch (final IllegalArgumentException e)
+    {
+    }
+  }
+
+  @Test
+  public void testBatchDensity()
+  {
+    final Random random = new Random(10);
+    final PointModel model = newModel(range, random, 5000);
+    // Each side drawn from [-0.5, 1.5), so that most of the points are outside the model's region
+    final double[][] points = new double[10000][];
+    for (int i = 0; i < points.length; i++)
+    {
+      points[i] = new double[] { 2 * random.nextDouble() - 0.5, 2 * random.nextDouble() - 0.5, 2 * random.nextDouble() - 0.5 };
+    }
+    final double[] densities = new double[points.length];
+    model.getDensity(points, densities);
+    int outside = 0;
+    for (int i = 0; i < points.length; i++)
+    {
+      Assert.assertEquals(model.getDensity(points[i]), densities[i]);
+      if (!model.getRegion().contains(points[i]))
+      {
+        Assert.assertEquals(0., densities[i]);
+        outside++;
+      }
+    }
+    Assert.assertTrue(0 < outside && outside < points.length);
+    final ModelSampler sampler = new ModelSampler(model);
+    assertBatchDensity(sampler, points);
+    // The sequential default, for distributions that don't override it
+    assertBatchDensity(new DistributionBase() {
+      @Override
+      public RealFunction getDensity()
+      {
+        return sampler.getDensity();
+      }
+
+      @Override
+      public int getDimension()
+      {
+        return sampler.getDimension();
+      }
+
+      @Override
+      public double[] sample(final Random random)
+      {
+        return sampler.sample(random);
+      }
+    }, points);
+  }
+}
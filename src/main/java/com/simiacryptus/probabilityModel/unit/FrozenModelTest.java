@@ -0,0 +1,111 @@
+package com.simiacryptus.probabilityModel.unit;
+
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.simiacryptus.data.DoubleRange;
+import com.simiacryptus.probabilityModel.ModelSampler;
+import com.simiacryptus.probabilityModel.model.FrozenModel;
+import com.simiacryptus.probabilityModel.model.PointModel;
+import com.simiacryptus.probabilityModel.rules.fitness.VolumeEntropySplitFitness;
+import com.simiacryptus.probabilityModel.rules.pca.PCARuleGenerator;
+import com.simiacryptus.probabilityModel.visitors.ModelPartitioner;
+import com.simiacryptus.probabilityModel.volume.DoubleVolume;
+import com.simiacryptus.util.TestUtil;
+
+public class FrozenModelTest
+{
+  private static final DoubleVolume range = new DoubleVolume(new DoubleRange(0, 1), new DoubleRange(0, 1));
+
+  private static double[][] points(final Random random, final int count)
+  {
+    final double[][] points = new double[count][];
+    for (int i = 0; i < count; i++)
+    {
+      points[i] = new double[] { random.nextDouble(), random.nextDouble() };
+    }
+    return points;
+  }
+
+  private static double[] mean(final double[][] samples)
+  {
+    final double[] mean = new double[2];
+    for (final double[] sample : samples)
+    {
+      for (int d = 0; d < mean.length; d++)
+      {
+        mean[d] += sample[d] / samples.length;
+      }
+    }
+    return mean;
+  }
+
+  @Test
+  public void testAxisAligned()
+  {
+    final Random random = new Random(1);
+    final PointModel model = TestUtil.newSkewedModel(range, random, 5000);
+    new ModelPartitioner(new VolumeEntropySplitFitness()).visit(model, Integer.MAX_VALUE);
+    final FrozenModel frozen = model.freeze();
+    Assert.assertEquals(model.getNodeCount(), frozen.getNodeCount());
+    Assert.assertEquals(model.getWeight(), frozen.getWeight());
+    final double[][] points = points(random, 2000);
+    for (final double[] point : points)
+    {
+      Assert.assertEquals(model.getDensity(point), frozen.getDensity(point));
+    }
+    final double[][] expected = new ModelSampler(model).sample(1000, 7L);
+    final double[][] actual = new ModelSampler(frozen).sample(1000, 7L);
+    for (int i = 0; i < expected.length; i++)
+    {
+      for (int d = 0; d < 2; d++)
+      {
+        Assert.assertEquals(expected[i][d], actual[i][d]);
+      }
+    }
+    // Later training doesn't show through
+    final double[] densities = new double[points.length];
+    frozen.getDensity(points, densities);
+    for (int i = 0; i < 5000; i++)
+    {
+      model.addDataPoint(new double[] { random.nextDouble(), random.nextDouble() });
+    }
+    new ModelPartitioner(new VolumeEntropySplitFitness()).visit(model, Integer.MAX_VALUE);
+    for (int i = 0; i < points.length; i++)
+    {
+      Assert.assertEquals(densities[i], frozen.getDensity(points[i]));
+    }
+  }
+
+  @Test
+  public void testLinearCells()
+  {
+    final Random random = new Random(2);
+    final PointModel model = TestUtil.newSkewedModel(range, random, 5000);
+    new ModelPartitioner(new PCARuleGenerator(new VolumeEntropySplitFitness())).visit(model, Integer.MAX_VALUE);
+    final double[][] points = points(random, 2000);
+    final double[] densities = new double[points.length];
+    // Settles the cells' volume estimates, which the copies carry over
+    model.getDensity(points, densities);
+    final FrozenModel frozen = model.freeze();
+    for (int i = 0; i < points.length; i++)
+    {
+      Assert.assertEquals(densities[i], frozen.getDensity(points[i]));
+      Assert.assertNotSame(model.getLeaf(points[i]).getRegion(), frozen.getLeaf(points[i]).getRegion());
+    }
+    final double[] expected = mean(new ModelSampler(model).sample(20000, new Random(3)));
+    final double[][] samples = new ModelSampler(frozen).sample(20000, new Random(4));
+    for (final double[] sample : samples)
+    {
+      Assert.assertTrue(range.contains(sample));
+    }
+    final double[] actual = mean(samples);
+    for (int d = 0; d < 2; d++)
+    {
+      Assert.assertEquals(expected[d], actual[d], 0.01);
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package com.simiacryptus.probabilityModel.unit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.simiacryptus.data.DoubleRange;
+import com.simiacryptus.probabilityModel.model.PointModel;
+import com.simiacryptus.probabilityModel.points.MappedPointStore;
+import com.simiacryptus.probabilityModel.rules.fitness.VolumeEntropySplitFitness;
+import com.simiacryptus.probabilityModel.visitors.ModelPartitioner;
+import com.simiacryptus.probabilityModel.volume.DoubleVolume;
+
+public class MappedPointStoreTest
+{
+  @Test
+  public void test() throws IOException
+  {
+    final File file = File.createTempFile("points", ".bin");
+    file.deleteOnExit();
+    final Random random = new Random(1);
+    final double[][] points = new double[1000][3];
+    final ByteBuffer buffer = ByteBuffer.allocate(points.length * 3 * 8).order(ByteOrder.LITTLE_ENDIAN);
+    for (final double[] point : points)
+    {
+      for (int d = 0; d < point.length; d++)
+      {
+        point[d] = random.nextDouble();
+        buffer.putDouble(point[d]);
+      }
+    }
+    buffer.flip();
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE))
+    {
+      channel.write(buffer);
+    }
+
+    final MappedPointStore store = new MappedPointStore(file, 3);
+    Assert.assertEquals(points.length, store.size());
+    for (int row = 0; row < points.length; row++)
+    {
+      for (int d = 0; d < 3; d++)
+      {
+        Assert.assertEquals(points[row][d], store.get(row, d));
+      }
+    }
+
+    final DoubleVolume range = new DoubleVolume(new DoubleRange(0, 1), new DoubleRange(0, 1), new DoubleRange(0, 1));
+    final PointModel model = new PointModel(range, store);
+    Assert.assertEquals((double) points.length, model.getWeight());
+    new ModelPartitioner(new VolumeEntropySplitFitness()).visit(model, Integer.MAX_VALUE);
+    Assert.assertTrue(1 < model.getNodeCount());
+    Assert.assertEquals((double) points.length, model.getWeight());
+    Assert.assertEquals(points.length, model.getDataPoints().size());
+
+    // Over a range that leaves some rows out, the first of them is named
+    final DoubleVolume half = new DoubleVolume(new DoubleRange(0, 1), new DoubleRange(0, 0.5), new DoubleRange(0, 1));
+    int outside = 0;
+    while (half.contains(points[outside]))
+    {
+      outside++;
+    }
+    try
+    {
+      new PointModel(half, store);
+      Assert.fail();
+    }
+    catch (final IllegalArgumentException e)
+    {
+      Assert.assertTrue(e.getMessage(), e.getMessage().startsWith(String.format("Row %s ", outside)));
+    }
+  }
+}
@@ -0,0 +1,279 @@
+package com.simiacryptus.probabilityModel.unit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.simiacryptus.data.DoubleRange;
+import com.simiacryptus.probabilityModel.ModelSampler;
+import com.simiacryptus.probabilityModel.model.NodeUtil;
+import com.simiacryptus.probabilityModel.model.PointModel;
+import com.simiacryptus.probabilityModel.model.PointNode;
+import com.simiacryptus.probabilityModel.rules.fitness.VolumeEntropySplitFitness;
+import com.simiacryptus.probabilityModel.rules.pca.PCARuleGenerator;
+import com.simiacryptus.probabilityModel.visitors.ModelPartitioner;
+import com.simiacryptus.probabilityModel.volume.DoubleVolume;
+import com.simiacryptus.util.TestUtil;
+
+public class ModelSamplerTest
+{
+  private static final DoubleVolume range = new DoubleVolume(new DoubleRange(0, 1), new DoubleRange(0, 1), new DoubleRange(0, 1));
+
+  private static double[][] sample(final ModelSampler sampler, final int threads, final int count, final long seed) throws Exception
+  {
+    final ForkJoinPool pool = new ForkJoinPool(threads);
+    try
+    {
+      // Parallel streams run in the pool they're started from
+      return pool.submit(() -> sampler.sample(count, seed)).get();
+    }
+    finally
+    {
+      pool.shutdown();
+    }
+  }
+
+  private static void assertSame(final double[][] expected, final double[][] actual)
+  {
+    Assert.assertEquals(expected.length, actual.length);
+    for (int i = 0; i < expected.length; i++)
+    {
+      for (int d = 0; d < expected[i].length; d++)
+      {
+        Assert.assertEquals(expected[i][d], actual[i][d]);
+      }
+    }
+  }
+
+  /**
+   * An estimate of the integral of x * y + z over the model
+   */
+  private static double estimate(final double[][] points)
+  {
+    double sum = 0;
+    for (final double[] point : points)
+    {
+      sum += point[0] * point[1] + point[2];
+    }
+    return sum / points.length;
+  }
+
+  private static double[] meanAndVariance(final double[] values)
+  {
+    double mean = 0;
+    for (final double value : values)
+    {
+      mean += value / values.length;
+    }
+    double variance = 0;
+    for (final double value : values)
+    {
+      variance += (value - mean) * (value - mean) / (values.length - 1);
+    }
+    return new double[] { mean, variance };
+  }
+
+  /**
+   * Asserts that each dimension of the samples, stored one after another, follows the model's marginal, by a
+   * Kolmogorov-Smirnov bound at about the 1% level
+   */
+  private static void assertMarginals(final PointModel model, final double[] samples, final int count)
+  {
+    for (int d = 0; d < 3; d++)
+    {
+      final double[] values = new double[count];
+      for (int i = 0; i < count; i++)
+      {
+        values[i] = samples[i * 3 + d];
+      }
+      Arrays.sort(values);
+      double distance = 0;
+      for (int i = 0; i < count; i++)
+      {
+        final double p = model.cdf(d, values[i]);
+        distance = Math.max(distance, Math.max(Math.abs((double) (i + 1) / count - p), Math.abs((double) i / count - p)));
+      }
+      Assert.assertTrue(distance < 1.63 / Math.sqrt(count));
+    }
+  }
+
+  private static double[] flatten(final double[][] points)
+  {
+    final double[] values = new double[points.length * 3];
+    for (int i = 0; i < points.length; i++)
+    {
+      System.arraycopy(points[i], 0, values, i * 3, 3);
+    }
+    return values;
+  }
+
+  @Test
+  public void testPoolSizeDoesntMatter() throws Exception
+  {
+    final PointModel model = TestUtil.newSkewedModel(range, new Random(1), 10000);
+    // Linear cells, which aren't boxes
+    new ModelPartitioner(new PCARuleGenerator(new VolumeEntropySplitFitness())).visit(model, Integer.MAX_VALUE);
+    Assert.assertTrue(1 < model.getNodeCount());
+    final ModelSampler sampler = new ModelSampler(model);
+    final double[][] expected = sample(sampler, 1, 20000, 7L);
+    for (final double[] point : expected)
+    {
+      Assert.assertTrue(range.contains(point));
+    }
+    // Other callers of the shared source don't show through either
+    for (int i = 0; i < 1000; i++)
+    {
+      sampler.sample(new Random(i));
+    }
+    assertSame(expected, sample(sampler, 4, 20000, 7L));
+    assertSame(expected, sampler.sample(20000, 7L));
+    assertSame(expected, new ModelSampler(model).sample(20000, 7L));
+  }
+
+  @Test
+  public void testLowDiscrepancy()
+  {
+    final PointModel model = TestUtil.newSkewedModel(range, new Random(2), 10000);
+    new ModelPartitioner(new VolumeEntropySplitFitness()).visit(model, Integer.MAX_VALUE);
+    final ModelSampler sampler = new ModelSampler(model);
+    final Random random = new Random(3);
+    final int count = 2000;
+    // Each leaf gets the whole number just below or above its share
+    final double[][] points = sampler.sampleLowDiscrepancy(count, random);
+    final Map<PointNode, int[]> counts = new IdentityHashMap<PointNode, int[]>();
+    for (final double[] point : points)
+    {
+      final PointNode leaf = model.getLeaf(point);
+      Assert.assertNotNull(leaf);
+      counts.computeIfAbsent(leaf, l -> new int[1])[0]++;
+    }
+    for (final PointNode leaf : NodeUtil.getLeaves(model.getRoot()))
+    {
+      final int[] n = counts.get(leaf);
+      Assert.assertTrue(Math.abs(count * leaf.getWeight() / model.getWeight() - (null == n ? 0 : n[0])) < 1);
+    }
+    // Unbiased, with less variance than independent samples
+    final double[] independent = new double[200];
+    final double[] lowDiscrepancy = new double[independent.length];
+    for (int i = 0; i < independent.length; i++)
+    {
+      independent[i] = estimate(sampler.sample(count, (long) i));
+      lowDiscrepancy[i] = estimate(sampler.sampleLowDiscrepancy(count, random));
+    }
+    final double[] expected = meanAndVariance(independent);
+    final double[] actual = meanAndVariance(lowDiscrepancy);
+    Assert.assertEquals(expected[0], actual[0], 5 * Math.sqrt((expected[1] + actual[1]) / independent.length));
+    // The variance is about five times less; the ratio of the estimates follows F(199, 199), which only falls to
+    // half that about once in a million runs
+    Assert.assertTrue(actual[1] < expected[1] / 2);
+  }
+
+  @Test
+  public void testSampleInto()
+  {
+    final PointModel model = TestUtil.newSkewedModel(range, new Random(4), 10000);
+    new ModelPartitioner(new VolumeEntropySplitFitness()).visit(model, Integer.MAX_VALUE);
+    final ModelSampler sampler = new ModelSampler(model);
+    final int count = 30000;
+    final double[] buffer = new double[count * 3 + 1];
+    buffer[count * 3] = -1;
+    sampler.sampleInto(buffer, count, new Random(5));
+    // Nothing is written past the samples
+    Assert.assertEquals(-1., buffer[count * 3]);
+    assertMarginals(model, buffer, count);
+    assertMarginals(model, flatten(sampler.sample(count, new Random(6))), count);
+    assertMarginals(model, sampler.sampleStream(count, new Random(7)).toArray(), count);
+    try
+    {
+      sampler.sampleInto(new double[3 * 10 - 1], 10, new Random(8));
+      Assert.fail();
+    }
+    catch (final IllegalArgumentException e)
+    {
+      // Too small for the samples
+    }
+    // count * 3 wraps to a negative int; the buffer must still be refused before anything is written
+    final double[] small = new double[30];
+    for (final int invalid : new int[] { Integer.MAX_VALUE / 2, -1 })
+    {
+      try
+      {
+        sampler.sampleInto(small, invalid, new Random(8));
+        Assert.fail();
+      }
+      catch (final IllegalArgumentException e)
+      {
+        Assert.assertTrue(Arrays.equals(new double[30], small));
+      }
+    }
+  }
+
+  /**
+   * Everything each kind of draw by the given seed yields, flattened
+   */
+  private static double[] draw(final ModelSampler sampler, final long seed)
+  {
+    final int count = 500;
+    final double[] values = new double[4 * count * 3];
+    System.arraycopy(flatten(sampler.sample(count, new Random(seed))), 0, values, 0, count * 3);
+    System.arraycopy(flatten(sampler.sampleLowDiscrepancy(count, new Random(seed))), 0, values, count * 3, count * 3);
+    sampler.sampleInto(values, count, new Random(seed));
+    final Random random = new Random(seed);
+    for (int i = 0; i < count; i++)
+    {
+      System.arraycopy(sampler.sample(random), 0, values, (3 * count + i) * 3, 3);
+    }
+    return values;
+  }
+
+  @Test
+  public void testCallersShareNothing() throws Exception
+  {
+    final PointModel model = TestUtil.newSkewedModel(range, new Random(9), 5000);
+    // Linear cells, which aren't boxes
+    new ModelPartitioner(new PCARuleGenerator(new VolumeEntropySplitFitness())).visit(model, 6);
+    Assert.assertTrue(16 < NodeUtil.getLeaves(model.getRoot()).size());
+    final ModelSampler sampler = new ModelSampler(model);
+    final int threads = 4;
+    final double[][] expected = new double[threads][];
+    for (int t = 0; t < threads; t++)
+    {
+      expected[t] = draw(sampler, t);
+    }
+    // Each seed's draws are the same whatever other threads draw meanwhile
+    final ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try
+    {
+      final List<Future<?>> results = new ArrayList<Future<?>>();
+      for (int t = 0; t < threads; t++)
+      {
+        final int seed = t;
+        results.add(pool.submit(() -> {
+          for (int i = 0; i < 20; i++)
+          {
+            Assert.assertTrue(Arrays.equals(expected[seed], draw(sampler, seed)));
+          }
+        }));
+      }
+      for (final Future<?> result : results)
+      {
+        result.get();
+      }
+    }
+    finally
+    {
+      pool.shutdown();
+    }
+  }
+}
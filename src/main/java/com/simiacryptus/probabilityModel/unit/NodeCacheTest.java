@@ -0,0 +1,243 @@
+package com.simiacryptus.probabilityModel.unit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.simiacryptus.data.DoubleRange;
+import com.simiacryptus.data.VolumeMetric;
+import com.simiacryptus.probabilityModel.model.NodeBase;
+import com.simiacryptus.probabilityModel.model.PointModel;
+import com.simiacryptus.probabilityModel.model.PointNode;
+import com.simiacryptus.probabilityModel.model.ScalarModel;
+import com.simiacryptus.probabilityModel.model.ScalarNode;
+import com.simiacryptus.probabilityModel.rules.MetricRule;
+import com.simiacryptus.probabilityModel.rules.fitness.VolumeEntropySplitFitness;
+import com.simiacryptus.probabilityModel.rules.metrics.DimensionMetric;
+import com.simiacryptus.probabilityModel.rules.pca.PCARuleGenerator;
+import com.simiacryptus.probabilityModel.visitors.ModelPartitioner;
+import com.simiacryptus.probabilityModel.volume.DoubleVolume;
+import com.simiacryptus.probabilityModel.volume.SpacialVolume;
+
+public class NodeCacheTest
+{
+  private static final DoubleVolume range = new DoubleVolume(new DoubleRange(0, 1), new DoubleRange(0, 1));
+
+  private static double[][] points(final Random random, final int count)
+  {
+    final double[][] points = new double[count][];
+    for (int i = 0; i < points.length; i++)
+    {
+      final double x = random.nextDouble();
+      points[i] = new double[] { x, x * random.nextDouble() };
+    }
+    return points;
+  }
+
+  private static <T extends NodeBase<T>> List<T> getNodes(final T node)
+  {
+    final List<T> nodes = new ArrayList<T>();
+    nodes.add(node);
+    for (int i = 0; i < nodes.size(); i++)
+    {
+      for (final T child : nodes.get(i).getChildren())
+      {
+        if (null != child)
+        {
+          nodes.add(child);
+        }
+      }
+    }
+    return nodes;
+  }
+
+  /**
+   * Asserts that each node's cached volume and volume fraction are what its current region gives
+   */
+  private static void assertVolumes(final PointModel model)
+  {
+    final PointNode root = model.getRoot();
+    final VolumeMetric rootVolume = root.getRegion().getVolume();
+    for (final PointNode node : getNodes(root))
+    {
+      final VolumeMetric volume = node.getRegion().getVolume();
+      Assert.assertEquals(node.getPath(), volume.value, node.getVolume().value);
+      Assert.assertEquals(volume.dimension, node.getVolume().dimension);
+      if (root != node)
+      {
+        final VolumeMetric fraction = volume.divide(rootVolume);
+        Assert.assertEquals(node.getPath(), fraction.value, node.getVolumeFraction().value);
+        Assert.assertEquals(fraction.dimension, node.getVolumeFraction().dimension);
+      }
+    }
+  }
+
+  @Test
+  public void testVolumesFollowChanges()
+  {
+    final Random random = new Random(1);
+    // Unbounded, so that each node's effective region is narrowed to its points
+    final PointModel model = new PointModel(new DoubleVolume(2));
+    model.addDataPoints(points(random, 5000));
+    new ModelPartitioner(new VolumeEntropySplitFitness()).visit(model, 4);
+    final PointNode root = model.getRoot();
+    assertVolumes(model);
+
+    // A point beyond the root's points widens its effective region, and so every fraction below it
+    final SpacialVolume region = root.getRegion();
+    final double volume = root.getVolume().value;
+    model.addDataPoint(new double[] { 3, 2 });
+    Assert.assertNotSame(region, root.getRegion());
+    Assert.assertEquals(3., root.getRegion().getBounds().get(0).to);
+    Assert.assertEquals(2., root.getRegion().getBounds().get(1).to);
+    Assert.assertTrue(volume < root.getVolume().value);
+    assertVolumes(model);
+
+    // Collapsed, then split by one rule and another in its place
+    final PointNode node = root.getChildren().get(0);
+    Assert.assertNotNull(node.getRule());
+    node.setRule(null);
+    Assert.assertTrue(node.getChildren().isEmpty());
+    assertVolumes(model);
+    for (int d = 0; d < 2; d++)
+    {
+      final DoubleRange side = node.getRegion().getBounds().get(d);
+      node.setRule(new MetricRule(node.getUnboundableRegion(), new DimensionMetric(d), (side.from + side.to) / 2));
+      Assert.assertEquals(2, node.getChildren().size());
+      assertVolumes(model);
+      node.setRule(null);
+      assertVolumes(model);
+    }
+  }
+
+  @Test
+  public void testFrozenVolumeEstimates()
+  {
+    final Random random = new Random(2);
+    final PointModel model = new PointModel(range);
+    model.addDataPoints(points(random, 5000));
+    new ModelPartitioner(new PCARuleGenerator(new VolumeEntropySplitFitness())).visit(model, 5);
+    final List<PointNode> nodes = getNodes(model.getRoot());
+    Assert.assertTrue(16 < nodes.size());
+    final double[] volumes = new double[nodes.size()];
+    for (int i = 0; i < volumes.length; i++)
+    {
+      volumes[i] = nodes.get(i).getVolume().value;
+    }
+    // Each cell's estimate is the same however much it's sampled, and is what the node keeps
+    for (final PointNode node : nodes)
+    {
+      for (int i = 0; i < 100; i++)
+      {
+        node.getRegion().sample();
+      }
+    }
+    for (int i = 0; i < volumes.length; i++)
+    {
+      Assert.assertEquals(volumes[i], nodes.get(i).getVolume().value);
+      Assert.assertEquals(volumes[i], nodes.get(i).getRegion().getVolume().value);
+    }
+    // The children tile their parent, so their estimates add up to its volume, to within the estimates' errors
+    for (final PointNode node : nodes)
+    {
+      if (null == node.getRule())
+      {
+        continue;
+      }
+      double sum = 0;
+      for (final PointNode child : node.getChildren())
+      {
+        sum += child.getVolume().value;
+      }
+      // Each has a relative standard error of 2% at most, so their sum's relative to the parent's is under 3%
+      Assert.assertEquals(node.getPath(), 1, sum / node.getVolume().value, 0.1);
+    }
+  }
+
+  /**
+   * Asserts that each node below node has its position among its parent's children as its index, and the hex digits
+   * of those positions from the root down as its path
+   */
+  private static <T extends NodeBase<T>> void assertPaths(final T node, final String path)
+  {
+    Assert.assertEquals(path, node.getPath());
+    final List<T> children = node.getChildren();
+    for (int i = 0; i < children.size(); i++)
+    {
+      Assert.assertEquals(i, children.get(i).getChildIndex());
+      assertPaths(children.get(i), path + Integer.toHexString(i));
+    }
+  }
+
+  /**
+   * Asserts that the node, cut off from the tree, has no path; its parent link fails an assertion if they're enabled
+   */
+  private static void assertDetached(final PointNode node)
+  {
+    String path = null;
+    try
+    {
+      path = node.getPath();
+    }
+    catch (final RuntimeException | AssertionError e)
+    {
+    }
+    Assert.assertNull(path);
+  }
+
+  @Test
+  public void testPathsFollowChanges()
+  {
+    final Random random = new Random(3);
+    final PointModel model = new PointModel(range);
+    model.addDataPoints(points(random, 5000));
+    new ModelPartitioner(new VolumeEntropySplitFitness()).visit(model, 4);
+    final PointNode root = model.getRoot();
+    assertPaths(root, "");
+
+    // Collapsed, its former descendants no longer have paths, and nothing else has moved
+    final PointNode grandchild = getNodes(root).stream().filter(n -> 3 == n.getPath().length()).findFirst().get();
+    final PointNode child = grandchild.getParent();
+    final PointNode node = child.getParent();
+    Assert.assertSame(grandchild, node.getChildren().get(child.getChildIndex()).getChildren().get(grandchild.getChildIndex()));
+    node.setRule(null);
+    assertDetached(child);
+    assertDetached(grandchild);
+    assertPaths(root, "");
+
+    // Split again, into enough children to need two hex digits
+    final DoubleRange side = node.getRegion().getBounds().get(0);
+    final double[] splits = new double[20];
+    for (int i = 0; i < splits.length; i++)
+    {
+      splits[i] = side.from + side.size() * (i + 1) / (splits.length + 1);
+    }
+    node.setRule(new MetricRule(node.getUnboundableRegion(), new DimensionMetric(0), splits));
+    Assert.assertEquals(21, node.getChildren().size());
+    Assert.assertEquals(node.getPath() + "14", node.getChildren().get(20).getPath());
+    assertPaths(root, "");
+    new ModelPartitioner(new VolumeEntropySplitFitness()).visit(model, 6);
+    assertPaths(root, "");
+
+    // The root collapsed leaves no paths below it, and a copy's lazily built nodes have the original's
+    final ScalarModel copy = model.copy();
+    final List<PointNode> nodes = getNodes(root);
+    final List<ScalarNode> copies = getNodes(copy.getRoot());
+    Assert.assertEquals(nodes.size(), copies.size());
+    for (int i = 0; i < nodes.size(); i++)
+    {
+      Assert.assertEquals(nodes.get(i).getPath(), copies.get(i).getPath());
+    }
+    root.setRule(null);
+    for (final PointNode former : nodes.subList(1, nodes.size()))
+    {
+      assertDetached(former);
+    }
+    assertPaths(root, "");
+    assertPaths(copy.getRoot(), "");
+  }
+}
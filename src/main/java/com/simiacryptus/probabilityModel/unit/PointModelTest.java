@@ -0,0 +1,299 @@
+package com.simiacryptus.probabilityModel.unit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.simiacryptus.data.DoubleRange;
+import com.simiacryptus.probabilityModel.model.NodeUtil;
+import com.simiacryptus.probabilityModel.model.PointModel;
+import com.simiacryptus.probabilityModel.model.PointNode;
+import com.simiacryptus.probabilityModel.points.PointStore;
+import com.simiacryptus.probabilityModel.rules.fitness.VolumeEntropySplitFitness;
+import com.simiacryptus.probabilityModel.visitors.ModelPartitioner;
+import com.simiacryptus.probabilityModel.volume.DoubleVolume;
+
+public class PointModelTest
+{
+  private static final DoubleVolume range = new DoubleVolume(new DoubleRange(0, 1), new DoubleRange(0, 1));
+
+  private static double[][] points(final Random random, final int count)
+  {
+    final double[][] points = new double[count][];
+    for (int i = 0; i < points.length; i++)
+    {
+      final double x = random.nextDouble();
+      points[i] = new double[] { x, x * random.nextDouble() };
+    }
+    return points;
+  }
+
+  private static List<PointNode> getNodes(final PointNode node)
+  {
+    final List<PointNode> nodes = new ArrayList<PointNode>();
+    nodes.add(node);
+    for (int i = 0; i < nodes.size(); i++)
+    {
+      for (final PointNode child : nodes.get(i).getChildren())
+      {
+        if (null != child)
+        {
+          nodes.add(child);
+        }
+      }
+    }
+    return nodes;
+  }
+
+  /**
+   * Splits the target's nodes by the same rules as the source's
+   */
+  private static void copyRules(final PointNode source, final PointNode target)
+  {
+    if (null == source.getRule())
+    {
+      return;
+    }
+    target.setRule(source.getRule());
+    for (int i = 0; i < source.getChildren().size(); i++)
+    {
+      if (null != source.getChildren().get(i))
+      {
+        copyRules(source.getChildren().get(i), target.getChildren().get(i));
+      }
+    }
+  }
+
+  private static void assertSameNodes(final PointModel expected, final PointModel actual, final boolean sameRows)
+  {
+    final List<PointNode> expectedNodes = getNodes(expected.getRoot());
+    final List<PointNode> actualNodes = getNodes(actual.getRoot());
+    Assert.assertEquals(expectedNodes.size(), actualNodes.size());
+    for (int i = 0; i < expectedNodes.size(); i++)
+    {
+      final PointNode expectedNode = expectedNodes.get(i);
+      final PointNode actualNode = actualNodes.get(i);
+      Assert.assertEquals(expectedNode.getPath(), actualNode.getPath());
+      Assert.assertEquals(expectedNode.getWeight(), actualNode.getWeight());
+      Assert.assertEquals(expectedNode.getRowCount(), actualNode.getRowCount());
+      Assert.assertEquals(expectedNode.getDataPoints().size(), actualNode.getDataPoints().size());
+      if (sameRows)
+      {
+        Assert.assertTrue(Arrays.equals(expectedNode.getRows(), actualNode.getRows()));
+      }
+      final double[][] expectedPoints = expectedNode.getDataPoints().toArray(new double[0][]);
+      final double[][] actualPoints = actualNode.getDataPoints().toArray(new double[0][]);
+      Arrays.sort(expectedPoints, (a, b) -> Double.compare(a[0], b[0]));
+      Arrays.sort(actualPoints, (a, b) -> Double.compare(a[0], b[0]));
+      Assert.assertTrue(Arrays.deepEquals(expectedPoints, actualPoints));
+    }
+  }
+
+  /**
+   * Asserts that each node's slice holds exactly those of the model's rows whose points its region contains
+   */
+  private static void assertSlices(final PointModel model)
+  {
+    final PointStore store = model.getStore();
+    final int[] allRows = model.getRoot().getRows();
+    for (final PointNode node : getNodes(model.getRoot()))
+    {
+      final int[] expected = Arrays.stream(allRows).filter(row -> node.getUnboundableRegion().contains(store.getPoint(row))).sorted().toArray();
+      final int[] rows = node.getRows();
+      Arrays.sort(rows);
+      Assert.assertTrue(node.getPath(), Arrays.equals(expected, rows));
+      Assert.assertEquals(rows.length, node.getRowCount());
+    }
+  }
+
+  @Test
+  public void testPartitionedSlices()
+  {
+    final PointModel model = new PointModel(range);
+    model.addDataPoints(points(new Random(1), 5000));
+    for (int levels = 1; levels <= 4; levels++)
+    {
+      new ModelPartitioner(new VolumeEntropySplitFitness()).visit(model, levels);
+      assertSlices(model);
+    }
+    Assert.assertTrue(8 < model.getNodeCount());
+    Assert.assertEquals(5000, model.getRoot().getRowCount());
+  }
+
+  @Test
+  public void testBulkMatchesSingle()
+  {
+    final Random random = new Random(2);
+    final double[][] initial = points(random, 2000);
+    final PointModel bulk = new PointModel(range);
+    final PointModel single = new PointModel(range);
+    for (final double[] point : initial)
+    {
+      single.addDataPoint(point);
+    }
+    bulk.addDataPoints(initial);
+    assertSameNodes(single, bulk, true);
+    new ModelPartitioner(new VolumeEntropySplitFitness()).visit(bulk, 3);
+    copyRules(bulk.getRoot(), single.getRoot());
+    Assert.assertTrue(4 < bulk.getNodeCount());
+    // Into an already split model, so that a batch spreads across many leaves
+    for (int i = 0; i < 3; i++)
+    {
+      final double[][] batch = points(random, 1000);
+      for (final double[] point : batch)
+      {
+        single.addDataPoint(point);
+      }
+      bulk.addDataPoints(batch);
+      assertSameNodes(single, bulk, true);
+    }
+    Assert.assertEquals(5000., bulk.getWeight());
+    assertSlices(bulk);
+  }
+
+  @Test
+  public void testConcurrentIngestion() throws Exception
+  {
+    final int threads = 8;
+    final int pointsPerThread = 5000;
+    final Random random = new Random(3);
+    final PointModel concurrent = new PointModel(range);
+    final PointModel single = new PointModel(range);
+    final double[][] initial = points(random, 2000);
+    concurrent.addDataPoints(initial);
+    single.addDataPoints(initial);
+    new ModelPartitioner(new VolumeEntropySplitFitness()).visit(concurrent, 3);
+    copyRules(concurrent.getRoot(), single.getRoot());
+    final double[][][] points = new double[threads][][];
+    for (int t = 0; t < threads; t++)
+    {
+      points[t] = points(random, pointsPerThread);
+      for (final double[] point : points[t])
+      {
+        single.addDataPoint(point);
+      }
+    }
+    final ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try
+    {
+      final List<Future<?>> results = new ArrayList<Future<?>>();
+      for (int t = 0; t < threads; t++)
+      {
+        final double[][] threadPoints = points[t];
+        final boolean isBulk = 0 == t % 2;
+        results.add(pool.submit(() -> {
+          for (int i = 0; i < threadPoints.length; i += 100)
+          {
+            if (isBulk)
+            {
+              concurrent.addDataPoints(Arrays.copyOfRange(threadPoints, i, i + 100));
+            }
+            else
+            {
+              for (int j = i; j < i + 100; j++)
+              {
+                concurrent.addDataPoint(threadPoints[j]);
+              }
+            }
+          }
+        }));
+      }
+      for (final Future<?> result : results)
+      {
+        result.get();
+      }
+    }
+    finally
+    {
+      pool.shutdown();
+    }
+    final int total = initial.length + threads * pointsPerThread;
+    Assert.assertEquals((double) total, concurrent.getWeight());
+    Assert.assertEquals(total, concurrent.getRoot().getRowCount());
+    Assert.assertEquals(total, concurrent.getDataPoints().size());
+    Assert.assertEquals(total, concurrent.getStore().size());
+    // Rows are numbered in whatever order the threads got to the store, but each leaf holds the same points
+    assertSameNodes(single, concurrent, false);
+    assertSlices(concurrent);
+  }
+
+  /**
+   * Uniform points that the model routes to the given leaf
+   */
+  private static double[][] pointsIn(final PointModel model, final PointNode leaf, final Random random, final int count)
+  {
+    final double[][] points = new double[count][];
+    for (int i = 0; i < count;)
+    {
+      final double[] point = { random.nextDouble(), random.nextDouble() };
+      if (leaf == model.getRoot().getLeaf(point))
+      {
+        points[i++] = point;
+      }
+    }
+    return points;
+  }
+
+  @Test
+  public void testDirtyLeaves()
+  {
+    final Random random = new Random(4);
+    final PointModel model = new PointModel(range);
+    model.addDataPoints(points(random, 5000));
+    new ModelPartitioner(new VolumeEntropySplitFitness()).visit(model, 4);
+    model.takeDirtyLeaves();
+    Assert.assertTrue(model.takeDirtyLeaves().isEmpty());
+    final List<PointNode> leaves = NodeUtil.getLeaves(model.getRoot());
+    Assert.assertTrue(4 < leaves.size());
+    
+    // Only the leaves points were added to are dirty, whether added one at a time or in a batch
+    final PointNode first = model.getRoot().getLeaf(new double[] { 0.1, 0.9 });
+    final PointNode second = model.getRoot().getLeaf(new double[] { 0.9, 0.1 });
+    Assert.assertNotSame(first, second);
+    for (final double[] point : pointsIn(model, first, random, 10))
+    {
+      model.addDataPoint(point);
+    }
+    model.addDataPoints(pointsIn(model, second, random, 10));
+    final Set<PointNode> expected = Collections.newSetFromMap(new IdentityHashMap<PointNode, Boolean>());
+    expected.add(first);
+    expected.add(second);
+    final Set<PointNode> dirty = Collections.newSetFromMap(new IdentityHashMap<PointNode, Boolean>());
+    dirty.addAll(model.takeDirtyLeaves());
+    Assert.assertEquals(expected, dirty);
+    Assert.assertTrue(model.takeDirtyLeaves().isEmpty());
+    
+    // Partitioning the dirty leaves splits the one with new points, and leaves the others as they were
+    final int[][] rows = new int[leaves.size()][];
+    for (int i = 0; i < rows.length; i++)
+    {
+      rows[i] = leaves.get(i).getRows();
+    }
+    model.addDataPoints(pointsIn(model, first, random, 2000));
+    new ModelPartitioner(new VolumeEntropySplitFitness()).visitDirtyLeaves(model, Integer.MAX_VALUE);
+    Assert.assertNotNull(first.getRule());
+    final List<PointNode> newLeaves = NodeUtil.getLeaves(model.getRoot());
+    for (int i = 0; i < rows.length; i++)
+    {
+      final PointNode leaf = leaves.get(i);
+      if (leaf != first)
+      {
+        Assert.assertNull(leaf.getRule());
+        Assert.assertTrue(newLeaves.contains(leaf));
+        Assert.assertTrue(Arrays.equals(rows[i], leaf.getRows()));
+      }
+    }
+    assertSlices(model);
+  }
+}
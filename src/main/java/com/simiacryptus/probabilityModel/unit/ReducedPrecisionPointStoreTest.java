@@ -0,0 +1,54 @@
+package com.simiacryptus.probabilityModel.unit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.simiacryptus.data.DoubleRange;
+import com.simiacryptus.probabilityModel.model.PointModel;
+import com.simiacryptus.probabilityModel.points.FixedPointStore;
+import com.simiacryptus.probabilityModel.points.FloatPointStore;
+import com.simiacryptus.probabilityModel.points.PointStore;
+import com.simiacryptus.probabilityModel.volume.DoubleVolume;
+
+public class ReducedPrecisionPointStoreTest
+{
+  private static final DoubleVolume range = new DoubleVolume(new DoubleRange(0, 1), new DoubleRange(0.1, 0.7));
+
+  private static void testBounds(final PointStore store)
+  {
+    final double[][] points = { { 0.99999999, 0.5 }, { Math.nextDown(1.), Math.nextDown(0.7) }, { 0, 0.1 }, { 0.5, 0.69999999 } };
+    for (final double[] point : points)
+    {
+      final double[] rounded = store.round(point);
+      Assert.assertTrue(range.contains(rounded));
+      Assert.assertTrue(range.contains(store.round(rounded)));
+    }
+    final PointModel model = new PointModel(range, store);
+    model.addDataPoint(points[0]);
+    model.addDataPoints(points);
+    Assert.assertEquals(5., model.getWeight());
+    for (int row = 0; row < store.size(); row++)
+    {
+      Assert.assertTrue(range.contains(store.getPoint(row)));
+    }
+  }
+
+  @Test
+  public void testFixedPointBounds()
+  {
+    testBounds(new FixedPointStore(range));
+  }
+
+  @Test
+  public void testFloatBounds()
+  {
+    testBounds(new FloatPointStore(range));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testFixedPointRejectsOutOfRange()
+  {
+    new FixedPointStore(range).add(new double[] { 1, 0.5 });
+  }
+}
@@ -0,0 +1,228 @@
+package com.simiacryptus.probabilityModel.unit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.simiacryptus.data.DoubleRange;
+import com.simiacryptus.probabilityModel.model.NodeUtil;
+import com.simiacryptus.probabilityModel.model.PointModel;
+import com.simiacryptus.probabilityModel.model.PointNode;
+import com.simiacryptus.probabilityModel.model.RetentionPolicy;
+import com.simiacryptus.probabilityModel.rules.fitness.VolumeEntropySplitFitness;
+import com.simiacryptus.probabilityModel.visitors.ModelPartitioner;
+import com.simiacryptus.probabilityModel.volume.DoubleVolume;
+
+public class RetentionPolicyTest
+{
+  private static final DoubleVolume range      = new DoubleVolume(new DoubleRange(0, 1), new DoubleRange(0, 1));
+  private static final int          batches    = 200;
+  private static final int          batchSize  = 100;
+
+  private static double[][] batch(final Random random)
+  {
+    final double[][] points = new double[batchSize][];
+    for (int i = 0; i < points.length; i++)
+    {
+      final double x = random.nextDouble();
+      points[i] = new double[] { x, x * random.nextDouble() };
+    }
+    return points;
+  }
+
+  private static void testStoreStaysBounded(final RetentionPolicy retention)
+  {
+    final Random random = new Random(1);
+    final PointModel model = new PointModel(range);
+    model.setRetention(retention);
+    for (int i = 0; i < batches; i++)
+    {
+      model.addDataPoints(batch(random));
+      final int rows = model.getRoot().getRowCount();
+      Assert.assertTrue(rows <= retention.maxRows);
+      // Dropped rows are compacted away once they outnumber both the retained rows and the compaction minimum
+      Assert.assertTrue(model.getStore().size() <= rows + 2 * 1024 + batchSize);
+    }
+    Assert.assertEquals((double) batches * batchSize, model.getWeight());
+    model.compact();
+    Assert.assertEquals(model.getRoot().getRowCount(), model.getStore().size());
+  }
+
+  @Test
+  public void testReservoir()
+  {
+    testStoreStaysBounded(RetentionPolicy.reservoir(50));
+  }
+
+  @Test
+  public void testNone()
+  {
+    testStoreStaysBounded(RetentionPolicy.NONE);
+  }
+
+  @Test
+  public void testCountsBelowSplits()
+  {
+    final Random random = new Random(2);
+    final PointModel model = new PointModel(range);
+    final RetentionPolicy retention = RetentionPolicy.reservoir(200);
+    model.setRetention(retention);
+    for (int i = 0; i < batches; i++)
+    {
+      model.addDataPoints(batch(random));
+      if (0 == i % 20)
+      {
+        new ModelPartitioner(new VolumeEntropySplitFitness()).visit(model, Integer.MAX_VALUE);
+      }
+    }
+    Assert.assertTrue(1 < model.getNodeCount());
+    // Leaf counts are pro-rated below a split, but their total is exact
+    double total = 0;
+    for (final PointNode leaf : NodeUtil.getLeaves(model.getRoot()))
+    {
+      Assert.assertTrue(leaf.getRowCount() <= retention.maxRows);
+      Assert.assertEquals(Math.rint(leaf.getWeight()), leaf.getWeight());
+      total += leaf.getWeight();
+    }
+    Assert.assertEquals((double) batches * batchSize, total);
+    Assert.assertEquals((double) batches * batchSize, model.getWeight());
+  }
+
+  @Test
+  public void testHasRows()
+  {
+    final Random random = new Random(4);
+    final PointModel model = new PointModel(range);
+    model.addDataPoints(batch(random));
+    new ModelPartitioner(new VolumeEntropySplitFitness()).visit(model, 3);
+    // Answered from the counts while nothing's been dropped, with rows still waiting to be laid out
+    model.addDataPoints(batch(random));
+    for (final RetentionPolicy retention : new RetentionPolicy[] { RetentionPolicy.ALL, RetentionPolicy.reservoir(1) })
+    {
+      model.setRetention(retention);
+      for (final PointNode node : NodeUtil.getLeaves(model.getRoot()))
+      {
+        for (final PointNode each : new PointNode[] { node, node.getParent() })
+        {
+          for (int rows = 0; rows < 4; rows++)
+          {
+            // Asked first, before the rows are laid out
+            final boolean hasRows = each.hasRows(rows);
+            Assert.assertEquals(rows <= each.getRowCount(), hasRows);
+          }
+        }
+      }
+    }
+    // Leaves with many points, but a single row each
+    for (final PointNode leaf : NodeUtil.getLeaves(model.getRoot()))
+    {
+      Assert.assertTrue(2 <= leaf.getWeight());
+      Assert.assertFalse(leaf.hasRows(2));
+    }
+  }
+
+  @Test
+  public void testSetRetentionCompacts()
+  {
+    final Random random = new Random(3);
+    final PointModel model = new PointModel(range);
+    for (int i = 0; i < 10; i++)
+    {
+      model.addDataPoints(batch(random));
+    }
+    Assert.assertEquals(10 * batchSize, model.getRoot().getRowCount());
+    model.setRetention(RetentionPolicy.reservoir(100));
+    Assert.assertEquals(100, model.getRoot().getRowCount());
+    Assert.assertEquals(100, model.getStore().size());
+    Assert.assertEquals(10. * batchSize, model.getWeight());
+  }
+
+  /**
+   * A point that encodes its id, so that a row pointing at the wrong point can be told apart
+   */
+  private static double[] point(final int id, final int count)
+  {
+    return new double[] { (id + 0.5) / count, (id * 0.6180339887498949) % 1 };
+  }
+
+  private static int id(final double[] point, final int count)
+  {
+    final int id = (int) (point[0] * count);
+    Assert.assertEquals(point(id, count)[0], point[0]);
+    Assert.assertEquals(point(id, count)[1], point[1]);
+    return id;
+  }
+
+  private static void assertDistinctPoints(final PointModel model, final int count)
+  {
+    final boolean[] seen = new boolean[count];
+    for (final double[] point : model.getDataPoints())
+    {
+      final int id = id(point, count);
+      Assert.assertFalse(seen[id]);
+      seen[id] = true;
+    }
+  }
+
+  @Test
+  public void testConcurrentIngestion() throws Exception
+  {
+    final int threads = 4;
+    final int pointsPerThread = 50000;
+    final int count = threads * pointsPerThread;
+    final RetentionPolicy retention = RetentionPolicy.reservoir(100);
+    final PointModel model = new PointModel(range);
+    model.setRetention(retention);
+    final AtomicBoolean isAdding = new AtomicBoolean(true);
+    final ExecutorService pool = Executors.newFixedThreadPool(threads + 1);
+    try
+    {
+      // Reads lay out the queued rows, and so sample them and compact the store, while the writers add more
+      final Future<Integer> reader = pool.submit(() -> {
+        int reads = 0;
+        while (isAdding.get())
+        {
+          Assert.assertTrue(model.getRoot().getRowCount() <= retention.maxRows);
+          assertDistinctPoints(model, count);
+          reads++;
+        }
+        return reads;
+      });
+      final List<Future<?>> writers = new ArrayList<Future<?>>();
+      for (int t = 0; t < threads; t++)
+      {
+        final int thread = t;
+        writers.add(pool.submit(() -> {
+          for (int i = 0; i < pointsPerThread; i++)
+          {
+            model.addDataPoint(point(thread * pointsPerThread + i, count));
+          }
+        }));
+      }
+      for (final Future<?> writer : writers)
+      {
+        writer.get();
+      }
+      isAdding.set(false);
+      Assert.assertTrue(0 < reader.get());
+    }
+    finally
+    {
+      pool.shutdown();
+    }
+    Assert.assertEquals((double) count, model.getWeight());
+    Assert.assertEquals(retention.maxRows, model.getRoot().getRowCount());
+    assertDistinctPoints(model, count);
+    model.compact();
+    Assert.assertEquals(retention.maxRows, model.getStore().size());
+    assertDistinctPoints(model, count);
+  }
+}
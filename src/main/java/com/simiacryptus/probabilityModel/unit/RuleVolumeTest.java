@@ -0,0 +1,255 @@
+package com.simiacryptus.probabilityModel.unit;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+import junit.framework.Assert;
+
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.junit.Test;
+
+import com.simiacryptus.data.DoubleRange;
+import com.simiacryptus.probabilityModel.rules.MetricRule;
+import com.simiacryptus.probabilityModel.rules.metrics.DimensionMetric;
+import com.simiacryptus.probabilityModel.rules.pca.LinearMetric;
+import com.simiacryptus.probabilityModel.rules.pca.LinearVolume;
+import com.simiacryptus.probabilityModel.volume.DoubleVolume;
+import com.simiacryptus.probabilityModel.volume.Polytope;
+import com.simiacryptus.probabilityModel.volume.RuleVolume;
+import com.simiacryptus.probabilityModel.volume.SpacialVolume;
+
+public class RuleVolumeTest
+{
+  private static final DoubleVolume range = new DoubleVolume(new DoubleRange(0, 1), new DoubleRange(0, 1), new DoubleRange(0, 1));
+
+  private static ArrayRealVector randomDirection(final Random random)
+  {
+    final ArrayRealVector direction = new ArrayRealVector(new double[] { random.nextGaussian(), random.nextGaussian(), random.nextGaussian() });
+    return (ArrayRealVector) direction.mapDivideToSelf(direction.getNorm());
+  }
+
+  private static RuleVolume cut(final SpacialVolume parent, final ArrayRealVector eigenvector, final double[] through, final double split, final int partition)
+  {
+    final MetricRule rule = new MetricRule(range, new LinearMetric(eigenvector, 1, new ArrayRealVector(through)), split);
+    return new RuleVolume(parent, rule, partition);
+  }
+
+  private static double timeSamples(final SpacialVolume volume, final int count)
+  {
+    final double[][] samples = new double[count][];
+    final long start = System.nanoTime();
+    for (int i = 0; i < count; i++)
+    {
+      samples[i] = volume.sample();
+    }
+    final long time = System.nanoTime() - start;
+    for (final double[] sample : samples)
+    {
+      Assert.assertNotNull(sample);
+      Assert.assertTrue(volume.contains(sample));
+    }
+    return (double) time / count;
+  }
+
+  @Test
+  public void testCostIsFlatWithDepth()
+  {
+    DoubleVolume.random.setSeed(1);
+    final Random random = new Random(1);
+    SpacialVolume volume = range;
+    final double[] costs = new double[9];
+    for (int depth = 1; depth < costs.length; depth++)
+    {
+      // Each cut passes through a point of the cell, keeping the side it falls on at random
+      volume = cut(volume, randomDirection(random), volume.sample(), 0, random.nextInt(2));
+      timeSamples(volume, 1000);
+      costs[depth] = timeSamples(volume, 2000);
+    }
+    double least = Double.MAX_VALUE;
+    for (int depth = 1; depth < costs.length; depth++)
+    {
+      least = Math.min(least, costs[depth]);
+    }
+    // Without nesting, this would grow several times over with every level
+    Assert.assertTrue(Arrays.toString(costs), costs[costs.length - 1] < 10 * least);
+  }
+
+  @Test
+  public void testThinCellIsNotEmpty()
+  {
+    final ArrayRealVector direction = randomDirection(new Random(2));
+    final double[] center = { 0.5, 0.5, 0.5 };
+    final RuleVolume slab = cut(cut(range, direction, center, -1e-6, 1), direction, center, 1e-6, 0);
+    final double volume = slab.getVolume().value;
+    Assert.assertTrue(0 < volume);
+    Assert.assertTrue(volume < 1e-5);
+    for (int i = 0; i < 1000; i++)
+    {
+      final double[] sample = slab.sample();
+      Assert.assertNotNull(sample);
+      Assert.assertTrue(slab.contains(sample));
+    }
+  }
+
+  @Test
+  public void testEmptyCell()
+  {
+    final ArrayRealVector direction = randomDirection(new Random(3));
+    final double[] center = { 0.5, 0.5, 0.5 };
+    // Both sides of the same cut
+    final RuleVolume below = cut(range, direction, center, 0, 0);
+    final MetricRule rule = (MetricRule) below.rule;
+    final RuleVolume empty = new RuleVolume(below, rule, 1);
+    Assert.assertEquals(0., empty.getVolume().value);
+    Assert.assertNull(empty.sample());
+    Assert.assertTrue(0 < cut(below, randomDirection(new Random(4)), center, 0, 1).getVolume().value);
+  }
+
+  @Test
+  public void testVolume()
+  {
+    // Half the cube, cut through its center
+    final RuleVolume half = cut(range, randomDirection(new Random(5)), new double[] { 0.5, 0.5, 0.5 }, 0, 0);
+    Assert.assertEquals(0.5, half.getVolume().value, 0.1);
+  }
+
+  @Test
+  public void testSplitOnEdge()
+  {
+    final ArrayRealVector direction = randomDirection(new Random(6));
+    final RuleVolume cell = cut(range, direction, new double[] { 0.5, 0.5, 0.5 }, 0, 0);
+    final double edge = cell.getBounds().get(0).to;
+    // An axis-aligned split on the cell's upper edge leaves nothing above it
+    final MetricRule rule = new MetricRule(cell, new DimensionMetric(0), edge);
+    final SpacialVolume[] parts = rule.getSubVolumes();
+    Assert.assertEquals(cell.getBounds().get(0), parts[0].getBounds().get(0));
+    Assert.assertEquals(0., parts[1].getBounds().get(0).size());
+    Assert.assertEquals(0., parts[1].getVolume().value);
+    Assert.assertNull(parts[1].sample());
+    // A linear cell within it is empty too
+    Assert.assertNull(LinearVolume.getBoundingBox(parts[1]));
+    final LinearMetric metric = new LinearMetric(direction, 1, new ArrayRealVector(new double[] { 0.5, 0.5, 0.5 }));
+    Assert.assertNull(LinearVolume.intersect(parts[1], metric, new DoubleRange(-Double.MAX_VALUE, 0)));
+  }
+
+  private static double dot(final double[] a, final double[] b)
+  {
+    double sum = 0;
+    for (int i = 0; i < a.length; i++)
+    {
+      sum += a[i] * b[i];
+    }
+    return sum;
+  }
+
+  /**
+   * Asserts that the values, scaled to [0, 1), are uniform, by a Kolmogorov-Smirnov bound at about the 1% level
+   */
+  private static void assertUniform(final double[] values)
+  {
+    Arrays.sort(values);
+    final int count = values.length;
+    double distance = 0;
+    for (int i = 0; i < count; i++)
+    {
+      distance = Math.max(distance, Math.max(Math.abs((double) (i + 1) / count - values[i]), Math.abs((double) i / count - values[i])));
+    }
+    Assert.assertTrue(Double.toString(distance), distance < 1.63 / Math.sqrt(count));
+  }
+
+  /**
+   * The cube cut by the plane normal to direction through point, keeping the side below it
+   */
+  private static Polytope cut(final double[] direction, final double[] point)
+  {
+    return Polytope.box(range).intersect(direction, new DoubleRange(-Double.MAX_VALUE, dot(direction, point)));
+  }
+
+  /**
+   * The volume of x + y + z < 1 within the cube is 1/6, and that of the cube cut through its center by any plane 1/2
+   */
+  @Test
+  public void testVolumeError()
+  {
+    final double[] diagonal = { 1, 1, 1 };
+    final double[] direction = randomDirection(new Random(8)).toArray();
+    final double[][] cuts = { diagonal, { 1, 0, 0 }, direction, { 0.5, 0.5, 0.5 } };
+    final double[] volumes = { 1. / 6, 1. / 2 };
+    for (int c = 0; c < volumes.length; c++)
+    {
+      final Polytope cell = cut(cuts[2 * c], cuts[2 * c + 1]);
+      final double volume = volumes[c];
+      // Each estimate stops once its relative standard error is down to 2%
+      final double error = volume * 0.02;
+      Assert.assertEquals(volume, cell.getVolume(), 4 * error);
+      // The same for the same cell, however it's been sampled
+      cell.sample(new Random(9));
+      Assert.assertEquals(cell.getVolume(), cut(cuts[2 * c], cuts[2 * c + 1]).getVolume());
+      Assert.assertEquals(cell.getVolume(), cell.copy().getVolume());
+      // Estimates from the caller's streams scatter about the volume as the error says
+      final int runs = 50;
+      double sum = 0;
+      double squares = 0;
+      for (int i = 0; i < runs; i++)
+      {
+        final double estimate = cell.getVolume(new Random(i));
+        Assert.assertEquals(estimate, cell.getVolume(new Random(i)));
+        sum += estimate - volume;
+        squares += (estimate - volume) * (estimate - volume);
+      }
+      Assert.assertEquals(0, sum / runs, 4 * error / Math.sqrt(runs));
+      Assert.assertTrue(Math.sqrt(squares / runs) < 1.5 * error);
+    }
+  }
+
+  @Test
+  public void testAxisAlignedVolumeIsExact()
+  {
+    final DoubleVolume box = new DoubleVolume(new DoubleRange(0, 1), new DoubleRange(0, 2), new DoubleRange(-1, 2));
+    Assert.assertEquals(6., Polytope.box(box).getVolume());
+    // A reversed axis: -3 <= -2y < -1 is 0.5 < y <= 1.5, and 1 <= -2y < 3 misses 0 <= y < 2
+    Assert.assertEquals(3., Polytope.box(box).intersect(new double[] { 0, -2, 0 }, new DoubleRange(-3, -1)).getVolume());
+    Assert.assertEquals(0., Polytope.box(box).intersect(new double[] { 0, -2, 0 }, new DoubleRange(1, 3)).getVolume());
+    // Nested cuts by dimension rules
+    SpacialVolume cell = range;
+    double volume = 1;
+    final Random random = new Random(10);
+    for (int depth = 0; depth < 8; depth++)
+    {
+      final int dimension = random.nextInt(3);
+      final DoubleRange side = cell.getBounds().get(dimension);
+      final double split = side.from + random.nextDouble() * side.size();
+      final int partition = random.nextInt(2);
+      cell = new RuleVolume(cell, new MetricRule(cell, new DimensionMetric(dimension), split), partition);
+      volume *= (0 == partition ? split - side.from : side.to - split) / side.size();
+      Assert.assertEquals(volume, cell.getVolume().value, 1e-15);
+    }
+  }
+
+  /**
+   * Samples from a needle along the cube's diagonal, so thin that draws from its bounding box almost never land in it,
+   * and almost all come from the pool
+   */
+  @Test
+  public void testPoolIsUniform()
+  {
+    final double[] u = { Math.sqrt(1. / 3), Math.sqrt(1. / 3), Math.sqrt(1. / 3) };
+    final double[] v = { Math.sqrt(1. / 2), -Math.sqrt(1. / 2), 0 };
+    final double[] w = { Math.sqrt(1. / 6), Math.sqrt(1. / 6), -2 * Math.sqrt(1. / 6) };
+    final Polytope needle = Polytope.box(range).intersect(u, new DoubleRange(0.3, 1.5)).intersect(v, new DoubleRange(-0.003, 0.003)).intersect(w, new DoubleRange(-0.003, 0.003));
+    final SplittableRandom random = new SplittableRandom(11);
+    final int count = 20000;
+    final double[] along = new double[count];
+    final double[] across = new double[count];
+    for (int i = 0; i < count; i++)
+    {
+      final double[] sample = needle.sample(random);
+      Assert.assertTrue(needle.contains(sample));
+      along[i] = (dot(u, sample) - 0.3) / 1.2;
+      across[i] = (dot(v, sample) + 0.003) / 0.006;
+    }
+    assertUniform(along);
+    assertUniform(across);
+  }
+}
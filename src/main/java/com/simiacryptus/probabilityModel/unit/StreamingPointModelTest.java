@@ -0,0 +1,165 @@
+package com.simiacryptus.probabilityModel.unit;
+
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.simiacryptus.data.DoubleRange;
+import com.simiacryptus.probabilityModel.model.NodeUtil;
+import com.simiacryptus.probabilityModel.model.PointNode;
+import com.simiacryptus.probabilityModel.model.RetentionPolicy;
+import com.simiacryptus.probabilityModel.model.StreamingPointModel;
+import com.simiacryptus.probabilityModel.rules.fitness.VolumeEntropySplitFitness;
+import com.simiacryptus.probabilityModel.visitors.ModelPartitioner;
+import com.simiacryptus.probabilityModel.volume.DoubleVolume;
+
+public class StreamingPointModelTest
+{
+  private static final DoubleVolume range = new DoubleVolume(new DoubleRange(0, 1), new DoubleRange(0, 1));
+
+  private static double[][] points(final Random random, final int count)
+  {
+    final double[][] points = new double[count][];
+    for (int i = 0; i < points.length; i++)
+    {
+      final double x = random.nextDouble();
+      points[i] = new double[] { x, x * random.nextDouble() };
+    }
+    return points;
+  }
+
+  private static void assertNoLightSubtrees(final PointNode node, final double threshold)
+  {
+    if (null == node.getRule())
+    {
+      return;
+    }
+    Assert.assertTrue(node.getWeight() >= threshold);
+    for (final PointNode child : node.getChildren())
+    {
+      if (null != child)
+      {
+        assertNoLightSubtrees(child, threshold);
+      }
+    }
+  }
+
+  @Test
+  public void testDecay()
+  {
+    final StreamingPointModel model = new StreamingPointModel(range, Double.POSITIVE_INFINITY, 1, 0);
+    model.addDataPoints(points(new Random(1), 1000));
+    Assert.assertEquals(1000., model.getWeight(), 1e-9);
+    model.setTime(1);
+    Assert.assertEquals(500., model.getWeight(), 1e-9);
+    model.addDataPoints(points(new Random(2), 1000));
+    model.setTime(3);
+    Assert.assertEquals(125. + 250., model.getWeight(), 1e-9);
+    // Far enough that the masses are rebased
+    model.setTime(300);
+    model.addDataPoints(points(new Random(3), 1000));
+    Assert.assertEquals(1000., model.getWeight(), 1e-6);
+  }
+
+  @Test
+  public void testEviction()
+  {
+    final StreamingPointModel model = new StreamingPointModel(range, 10, Double.POSITIVE_INFINITY, 0);
+    final Random random = new Random(4);
+    model.addDataPoints(points(random, 2000));
+    model.setTime(5);
+    model.addDataPoints(points(random, 2000));
+    new ModelPartitioner(new VolumeEntropySplitFitness()).visit(model, Integer.MAX_VALUE);
+    Assert.assertEquals(4000., model.getWeight());
+    model.setTime(12);
+    Assert.assertEquals(2000., model.getWeight());
+    Assert.assertEquals(2000, model.getDataPoints().size());
+    // As many were evicted as remain, so the store was compacted
+    Assert.assertEquals(2000, model.getStore().size());
+    model.setTime(16);
+    Assert.assertEquals(0., model.getWeight());
+  }
+
+  @Test
+  public void testCollapseAsWeightsDecay()
+  {
+    final double threshold = 20;
+    final StreamingPointModel model = new StreamingPointModel(range, Double.POSITIVE_INFINITY, 1, threshold);
+    model.addDataPoints(points(new Random(5), 5000));
+    new ModelPartitioner(new VolumeEntropySplitFitness()).visit(model, Integer.MAX_VALUE);
+    final int nodes = model.getNodeCount();
+    Assert.assertTrue(1 < nodes);
+    // Nothing is evicted, so only decay can collapse subtrees
+    model.setTime(5);
+    Assert.assertTrue(model.getNodeCount() < nodes);
+    Assert.assertTrue(1 < model.getNodeCount());
+    assertNoLightSubtrees(model.getRoot(), threshold);
+    Assert.assertEquals(5000. / 32, model.getWeight(), 1e-9);
+    model.setTime(10);
+    Assert.assertEquals(1, model.getNodeCount());
+    Assert.assertEquals(5000. / 1024, model.getWeight(), 1e-9);
+  }
+
+  @Test
+  public void testRetention()
+  {
+    final StreamingPointModel model = new StreamingPointModel(range, 4, 2, 0);
+    final RetentionPolicy retention = RetentionPolicy.reservoir(50);
+    model.setRetention(retention);
+    final Random random = new Random(6);
+    double expected = 0;
+    for (int t = 0; t < 20; t++)
+    {
+      model.setTime(t);
+      model.addDataPoints(points(random, 500));
+      new ModelPartitioner(new VolumeEntropySplitFitness()).visit(model, Integer.MAX_VALUE);
+      expected = 0;
+      // Points are evicted once older than the window, so the batch exactly one window old is kept
+      for (int age = 0; age <= Math.min(t, 4); age++)
+      {
+        expected += 500 * Math.pow(2, -age / 2.);
+      }
+      // Masses of dropped rows are apportioned through splits, so the total stays exact
+      Assert.assertEquals(expected, model.getWeight(), 1e-6 * expected);
+      for (final PointNode leaf : NodeUtil.getLeaves(model.getRoot()))
+      {
+        Assert.assertTrue(leaf.getRowCount() <= retention.maxRows);
+      }
+      // Rows dropped by the policy are kept until evicted, but evicted rows don't pile up
+      Assert.assertTrue(model.getStore().size() <= 2 * 5 * 500 + 1024);
+    }
+    model.compact();
+    Assert.assertEquals(expected, model.getWeight(), 1e-6 * expected);
+    Assert.assertTrue(model.getStore().size() <= 5 * 500);
+  }
+
+  @Test
+  public void testEvictionWithRetention()
+  {
+    final StreamingPointModel model = new StreamingPointModel(range, 5, 3, 0);
+    final RetentionPolicy retention = RetentionPolicy.reservoir(5);
+    model.setRetention(retention);
+    final Random random = new Random(7);
+    for (int t = 0; t < 5; t++)
+    {
+      model.setTime(t);
+      model.addDataPoints(points(random, 500));
+      new ModelPartitioner(new VolumeEntropySplitFitness()).visit(model, Integer.MAX_VALUE);
+    }
+    Assert.assertTrue(1 < model.getNodeCount());
+    final double weight = model.getWeight();
+    // Each batch in turn falls out of the window, until the whole window has been evicted
+    for (int t = 5; t <= 10; t++)
+    {
+      model.setTime(t);
+      for (final PointNode leaf : NodeUtil.getLeaves(model.getRoot()))
+      {
+        Assert.assertTrue(leaf.getWeight() >= 0);
+      }
+      Assert.assertTrue(model.getWeight() <= weight);
+    }
+    Assert.assertEquals(0., model.getWeight(), 1e-9 * weight);
+  }
+}
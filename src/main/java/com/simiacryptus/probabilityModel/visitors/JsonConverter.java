@@ -82,16 +82,16 @@ public final class JsonConverter<T extends NodeBase<T>> extends NodeVisitor<Json
   private JSONArray getPoints(final PointNode node)
   {
     final JSONArray json = new JSONArray();
-    int count = 0;
-    final ArrayList<double[]> copy = new ArrayList<double[]>(node.getDataPoints());
-    Collections.shuffle(copy);
-    for (final double[] point : copy)
+    final int[] rows = node.getRows();
+    final Random random = new Random();
+    final int count = Math.min(rows.length, this.pointSample + 1);
+    for (int i = 0; i < count; i++)
     {
-      if (count++ > this.pointSample)
-      {
-        break;
-      }
-      json.put(String.format("%s", Arrays.toString(point)));
+      final int j = i + random.nextInt(rows.length - i);
+      final int row = rows[j];
+      rows[j] = rows[i];
+      rows[i] = row;
+      json.put(String.format("%s", Arrays.toString(node.getStore().getPoint(row))));
     }
     return json;
   }
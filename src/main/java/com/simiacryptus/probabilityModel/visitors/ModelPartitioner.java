@@ -1,5 +1,6 @@
 package com.simiacryptus.probabilityModel.visitors;
 
+import com.simiacryptus.probabilityModel.model.PointModel;
 import com.simiacryptus.probabilityModel.model.PointNode;
 import com.simiacryptus.probabilityModel.rules.MetricRuleGenerator;
 import com.simiacryptus.probabilityModel.rules.PartitionRule;
@@ -41,6 +42,18 @@ public class ModelPartitioner extends PoolNodeVisitor<ModelPartitioner, PointNod
     return this;
   }
   
+  /**
+   * Partitions only the leaves that have received points since the model's dirty leaves were last taken.
+   */
+  public ModelPartitioner visitDirtyLeaves(final PointModel model, final int maxLevels)
+  {
+    for (final PointNode leaf : model.takeDirtyLeaves())
+    {
+      this.visit(leaf, maxLevels);
+    }
+    return this;
+  }
+  
   @Override
   public void visitBegin(final PointNode node)
   {
@@ -52,6 +65,11 @@ public class ModelPartitioner extends PoolNodeVisitor<ModelPartitioner, PointNod
     {
       return;
     }
+    if (!node.hasRows(2))
+    {
+      // Too few rows were retained to derive a rule from
+      return;
+    }
     final PartitionRule rule = this.ruleGenerator.getRule(node);
     if (null == rule)
     {
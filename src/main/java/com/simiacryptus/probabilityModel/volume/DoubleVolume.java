@@ -6,6 +6,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.Random;
+import java.util.SplittableRandom;
 
 import javax.naming.OperationNotSupportedException;
 
@@ -151,6 +152,12 @@ public class DoubleVolume extends ArrayList<DoubleRange> implements SpacialVolum
     return true;
   }
   
+  @Override
+  public DoubleVolume copy()
+  {
+    return new DoubleVolume(this);
+  }
+  
   @Override
   public int dimensions()
   {
@@ -289,6 +296,12 @@ public class DoubleVolume extends ArrayList<DoubleRange> implements SpacialVolum
     }
   }
   
+  @Override
+  public Polytope getPolytope()
+  {
+    return Polytope.box(this);
+  }
+  
   @Override
   public Iterable<double[]> points()
   {
@@ -337,6 +350,52 @@ public class DoubleVolume extends ArrayList<DoubleRange> implements SpacialVolum
     return point;
   }
   
+  @Override
+  public double[] sample(final SplittableRandom random)
+  {
+    assert (validate());
+    final double[] point = new double[this.size()];
+    for (int i = 0; i < point.length; i++)
+    {
+      final DoubleRange range = this.get(i);
+      point[i] = range.from + random.nextDouble() * range.size();
+    }
+    return point;
+  }
+  
+  /**
+   * Writes a uniform point into buffer, starting at offset
+   */
+  public void sample(final Random random, final double[] buffer, final int offset)
+  {
+    assert (validate());
+    for (int i = 0; i < this.size(); i++)
+    {
+      buffer[offset + i] = this.get(i).sample(random);
+    }
+  }
+  
+  /**
+   * count points spread evenly through the volume, taken from a randomly shifted Halton sequence
+   */
+  public double[][] sampleLowDiscrepancy(final int count, final Random random)
+  {
+    assert (validate());
+    final HaltonSequence sequence = new HaltonSequence(this.size(), random);
+    final double[][] points = new double[count][];
+    for (int i = 0; i < count; i++)
+    {
+      final double[] point = sequence.get(i, new double[this.size()]);
+      for (int d = 0; d < point.length; d++)
+      {
+        final DoubleRange range = this.get(d);
+        point[d] = range.from + point[d] * range.size();
+      }
+      points[i] = point;
+    }
+    return points;
+  }
+  
   /*
    * (non-Javadoc)
    * @see com.simiacryptus.data.SpacialVolume#toJson()
@@ -379,6 +438,30 @@ public class DoubleVolume extends ArrayList<DoubleRange> implements SpacialVolum
     return copy;
   }
 
+  public DoubleVolume include(double[][] points)
+  {
+    final double[] min = new double[this.size()];
+    final double[] max = new double[this.size()];
+    Arrays.fill(min, Double.MAX_VALUE);
+    Arrays.fill(max, -Double.MAX_VALUE);
+    for(double[] point : points)
+    {
+      for(int i = 0; i < min.length; i++)
+      {
+        min[i] = Math.min(min[i], point[i]);
+        max[i] = Math.max(max[i], point[i]);
+      }
+    }
+    final DoubleVolume copy = new DoubleVolume();
+    int i = 0;
+    for(DoubleRange d : this)
+    {
+      copy.add(d.include(min[i]).include(max[i]));
+      i++;
+    }
+    return copy;
+  }
+
   @Override
   public SpacialVolume union(SpacialVolume right)
   {
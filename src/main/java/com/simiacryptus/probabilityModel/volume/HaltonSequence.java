@@ -0,0 +1,76 @@
+package com.simiacryptus.probabilityModel.volume;
+
+import java.util.Random;
+
+/**
+ * A low-discrepancy sequence in the unit cube: coordinate d of the i'th point is the radical inverse of i in the d'th
+ * prime base. Every coordinate is shifted by its own random offset, modulo 1 (a Cranley-Patterson rotation), so that
+ * separate sequences are independent and estimates from them unbiased.
+ */
+public class HaltonSequence
+{
+
+  private final int[]    bases;
+  private final double[] shift;
+
+  public HaltonSequence(final int dimensions, final Random random)
+  {
+    this.bases = new int[dimensions];
+    this.shift = new double[dimensions];
+    int candidate = 2;
+    for (int d = 0; d < dimensions; d++)
+    {
+      while (!isPrime(candidate))
+      {
+        candidate++;
+      }
+      this.bases[d] = candidate++;
+      this.shift[d] = random.nextDouble();
+    }
+  }
+
+  private static boolean isPrime(final int n)
+  {
+    for (int factor = 2; factor * factor <= n; factor++)
+    {
+      if (0 == n % factor)
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static double radicalInverse(long index, final int base)
+  {
+    final double inverse = 1. / base;
+    double digit = inverse;
+    double value = 0;
+    while (0 < index)
+    {
+      value += digit * (index % base);
+      index /= base;
+      digit *= inverse;
+    }
+    return value;
+  }
+
+  public int dimensions()
+  {
+    return this.bases.length;
+  }
+
+  /**
+   * The index'th point, written into point
+   */
+  public double[] get(final long index, final double[] point)
+  {
+    for (int d = 0; d < this.bases.length; d++)
+    {
+      final double value = radicalInverse(index, this.bases[d]) + this.shift[d];
+      point[d] = value < 1 ? value : value - 1;
+    }
+    return point;
+  }
+
+}
@@ -0,0 +1,675 @@
+package com.simiacryptus.probabilityModel.volume;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+import org.apache.commons.math3.exception.MathIllegalStateException;
+import org.apache.commons.math3.optim.MaxIter;
+import org.apache.commons.math3.optim.PointValuePair;
+import org.apache.commons.math3.optim.linear.LinearConstraint;
+import org.apache.commons.math3.optim.linear.LinearConstraintSet;
+import org.apache.commons.math3.optim.linear.LinearObjectiveFunction;
+import org.apache.commons.math3.optim.linear.NonNegativeConstraint;
+import org.apache.commons.math3.optim.linear.Relationship;
+import org.apache.commons.math3.optim.linear.SimplexSolver;
+import org.apache.commons.math3.optim.nonlinear.scalar.GoalType;
+
+import com.simiacryptus.data.DoubleRange;
+
+/**
+ * A bounded convex cell, as the points x with lower[i] <= normal[i].x < upper[i] for every constraint i. Two linear
+ * programs settle its shape once: the Chebyshev center, the center of the largest ball within it, which exists only if
+ * the cell has an interior; and its axis-aligned bounding box. Points are drawn by rejection from that box, and if a
+ * few draws miss, by hit-and-run: from the current point, move to a uniform point on the chord through it in a random
+ * direction. Either way each draw costs a pass over the constraints, whatever depth of tree they came from. The
+ * directions are Gaussian, shaped like the cell, as otherwise the chords of a thin cell are short in almost every
+ * direction and the chain creeps along it. Its successive points are correlated, so several steps are taken per point.
+ */
+public class Polytope
+{
+  private static final int stepsPerSample = 3;
+  // The shape of the directions is settled by a chain of its own, from a fixed seed: each round of this many steps per
+  // dimension takes the covariance of its points as the shape for the next
+  private static final int shapeRounds    = 4;
+  private static final int shapeSteps     = 100;
+  private static final long shapeSeed     = 0x9e3779b97f4a7c15L;
+  // Starting points for sample(SplittableRandom): a chain of their own, from a fixed seed, keeps one per this many
+  // steps per dimension
+  private static final int poolSize       = 256;
+  private static final int poolSpacing    = 10;
+  private static final long poolSeed      = 0x5deece66dL;
+  // Draws from the bounding box tried for each point before falling back to hit-and-run
+  private static final int maxRejections  = 8;
+  // The volume is estimated from draws from the bounding box, until at least this many land in the cell and the
+  // estimate's relative standard error is down to this, or the trials run out. getVolume() draws from a fixed seed.
+  private static final int volumeHits     = 100;
+  private static final double volumeError = 0.02;
+  private static final int volumeTrials   = 100000;
+  private static final long volumeSeed    = 0x2545f4914f6cdd1dL;
+
+  /**
+   * The box as a polytope, or null if it's unbounded
+   */
+  public static Polytope box(final DoubleVolume box)
+  {
+    if (box.isUnbounded())
+    {
+      return null;
+    }
+    Polytope polytope = new Polytope(box.size());
+    for (int d = 0; d < box.size(); d++)
+    {
+      final double[] normal = new double[box.size()];
+      normal[d] = 1;
+      polytope = polytope.intersect(normal, box.get(d));
+    }
+    // No need to solve for what a box already gives
+    polytope.isSolved = true;
+    polytope.bounds = new DoubleVolume(box);
+    polytope.radius = Double.POSITIVE_INFINITY;
+    polytope.center = new double[box.size()];
+    for (int d = 0; d < box.size(); d++)
+    {
+      final DoubleRange range = box.get(d);
+      polytope.center[d] = (range.from + range.to) / 2;
+      polytope.radius = Math.min(polytope.radius, range.size() / 2);
+    }
+    if (!(0 < polytope.radius))
+    {
+      polytope.center = null;
+    }
+    return polytope;
+  }
+
+  private final int        dimensions;
+  private final double[][] normal;
+  private final double[]   lower;
+  private final double[]   upper;
+  // Solved once: the Chebyshev center and radius, the center null if the cell has no interior, and the bounding box
+  private boolean          isSolved;
+  private double[]         center;
+  private double           radius;
+  private DoubleVolume     bounds;
+  // The volume as getVolume() first found it, or NaN until then
+  private double           volume = Double.NaN;
+  // The chain's current point, or null until started
+  private double[]         current;
+  // Settled once each: a lower triangular factor of the directions' covariance, the last point of the chain that found
+  // it, which the other chains start from, and the pool
+  private double[][]       shape;
+  private double[]         start;
+  private double[][]       pool;
+  private final double[]   gaussian;
+  private final double[]   direction;
+  private Polytope(final int dimensions)
+  {
+    this(dimensions, new double[0][], new double[0], new double[0]);
+  }
+
+  private Polytope(final int dimensions, final double[][] normal, final double[] lower, final double[] upper)
+  {
+    this.dimensions = dimensions;
+    this.normal = normal;
+    this.lower = lower;
+    this.upper = upper;
+    this.gaussian = new double[dimensions];
+    this.direction = new double[dimensions];
+  }
+
+  /**
+   * A copy with the same solution and volume estimate, whose chain starts afresh
+   */
+  public synchronized Polytope copy()
+  {
+    final Polytope copy = new Polytope(this.dimensions, this.normal, this.lower, this.upper);
+    copy.isSolved = this.isSolved;
+    copy.center = null == this.center ? null : this.center.clone();
+    copy.radius = this.radius;
+    copy.bounds = null == this.bounds ? null : this.bounds.copy();
+    copy.volume = this.volume;
+    // Never written, so can be shared
+    copy.shape = this.shape;
+    copy.start = this.start;
+    copy.pool = this.pool;
+    return copy;
+  }
+
+  /**
+   * This cell cut by the slab where the dot product with normal lies in range. Infinite and +/-Double.MAX_VALUE bounds
+   * are taken as absent.
+   */
+  public Polytope intersect(final double[] normal, final DoubleRange range)
+  {
+    final int n = this.normal.length;
+    final double[][] normals = Arrays.copyOf(this.normal, n + 1);
+    final double[] lower = Arrays.copyOf(this.lower, n + 1);
+    final double[] upper = Arrays.copyOf(this.upper, n + 1);
+    normals[n] = normal;
+    lower[n] = isFinite(range.from) ? range.from : Double.NEGATIVE_INFINITY;
+    upper[n] = isFinite(range.to) ? range.to : Double.POSITIVE_INFINITY;
+    return new Polytope(this.dimensions, normals, lower, upper);
+  }
+
+  private static boolean isFinite(final double value)
+  {
+    return !Double.isInfinite(value) && !Double.isNaN(value) && Double.MAX_VALUE != Math.abs(value);
+  }
+
+  private static double dot(final double[] a, final double[] b)
+  {
+    double sum = 0;
+    for (int i = 0; i < a.length; i++)
+    {
+      sum += a[i] * b[i];
+    }
+    return sum;
+  }
+
+  public boolean contains(final double[] point)
+  {
+    for (int i = 0; i < this.normal.length; i++)
+    {
+      final double value = dot(this.normal[i], point);
+      if (this.lower[i] > value || this.upper[i] <= value)
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public int dimensions()
+  {
+    return this.dimensions;
+  }
+
+  /**
+   * Whether the cell has no interior
+   */
+  public synchronized boolean isEmpty()
+  {
+    this.solve();
+    return null == this.center;
+  }
+
+  /**
+   * The cell's volume: exact if every constraint is along an axis, otherwise estimated by getVolume(Random) from a
+   * fixed seed, so that the same cell always gets the same estimate
+   */
+  public synchronized double getVolume()
+  {
+    if (Double.isNaN(this.volume))
+    {
+      final double box = this.getBoxVolume();
+      this.volume = Double.isNaN(box) ? this.getVolume(new Random(volumeSeed)) : box;
+    }
+    return this.volume;
+  }
+
+  /**
+   * The fraction of the bounding box's draws from the given stream that land in the cell, times its volume; but no
+   * less than the volume of the largest ball within the cell, so a thin cell that no draw happened to hit isn't taken
+   * as empty
+   */
+  public synchronized double getVolume(final Random random)
+  {
+    this.solve();
+    if (null == this.center)
+    {
+      return 0;
+    }
+    final double ballVolume = ballVolume(this.dimensions, this.radius);
+    if (null == this.bounds)
+    {
+      return ballVolume;
+    }
+    final double[] from = new double[this.dimensions];
+    final double[] size = new double[this.dimensions];
+    for (int d = 0; d < this.dimensions; d++)
+    {
+      from[d] = this.bounds.get(d).from;
+      size[d] = this.bounds.get(d).size();
+    }
+    final double[] point = new double[this.dimensions];
+    int hits = 0;
+    int trials = 0;
+    // With p the fraction of draws that hit, the relative variance of the estimate is (1 - p) / hits
+    while (trials < volumeTrials && (hits < volumeHits || (trials - hits) > volumeError * volumeError * trials * hits))
+    {
+      for (int d = 0; d < this.dimensions; d++)
+      {
+        point[d] = from[d] + random.nextDouble() * size[d];
+      }
+      trials++;
+      if (this.contains(point))
+      {
+        hits++;
+      }
+    }
+    return Math.max(ballVolume, this.bounds.getVolume().value * hits / trials);
+  }
+
+  /**
+   * The exact volume if each constraint bounds a single coordinate and together they bound every one; otherwise NaN
+   */
+  private double getBoxVolume()
+  {
+    final double[] from = new double[this.dimensions];
+    final double[] to = new double[this.dimensions];
+    Arrays.fill(from, Double.NEGATIVE_INFINITY);
+    Arrays.fill(to, Double.POSITIVE_INFINITY);
+    for (int i = 0; i < this.normal.length; i++)
+    {
+      int axis = -1;
+      for (int d = 0; d < this.dimensions; d++)
+      {
+        if (0 != this.normal[i][d])
+        {
+          if (0 <= axis)
+          {
+            return Double.NaN;
+          }
+          axis = d;
+        }
+      }
+      if (0 > axis)
+      {
+        // Constrains no coordinate, so either holds everywhere or nowhere
+        if (!(this.lower[i] <= 0 && 0 < this.upper[i]))
+        {
+          return 0;
+        }
+        continue;
+      }
+      final double scale = this.normal[i][axis];
+      final double a = this.lower[i] / scale;
+      final double b = this.upper[i] / scale;
+      from[axis] = Math.max(from[axis], Math.min(a, b));
+      to[axis] = Math.min(to[axis], Math.max(a, b));
+    }
+    double volume = 1;
+    for (int d = 0; d < this.dimensions; d++)
+    {
+      if (Double.isInfinite(from[d]) || Double.isInfinite(to[d]))
+      {
+        return Double.NaN;
+      }
+      volume *= Math.max(0, to[d] - from[d]);
+    }
+    return volume;
+  }
+
+  private static double ballVolume(final int dimensions, final double radius)
+  {
+    // The unit ball's volume follows V(d) = V(d - 2) * 2 pi / d from V(0) = 1 and V(1) = 2
+    double volume = 0 == dimensions % 2 ? 1 : 2;
+    for (int d = 0 == dimensions % 2 ? 2 : 3; d <= dimensions; d += 2)
+    {
+      volume *= 2 * Math.PI / d;
+    }
+    return volume * Math.pow(radius, dimensions);
+  }
+
+  /**
+   * A point drawn uniformly from the cell, or null if it has no interior
+   */
+  public synchronized double[] sample(final Random random)
+  {
+    final double[][] shape = this.getShape();
+    if (null == shape)
+    {
+      return null;
+    }
+    if (null != this.bounds)
+    {
+      for (int i = 0; i < maxRejections; i++)
+      {
+        final double[] point = new double[this.dimensions];
+        this.bounds.sample(random, point, 0);
+        if (this.contains(point))
+        {
+          return point;
+        }
+      }
+    }
+    if (null == this.current)
+    {
+      this.current = this.start;
+    }
+    for (int i = 0; i < stepsPerSample * this.dimensions; i++)
+    {
+      for (int d = 0; d < this.dimensions; d++)
+      {
+        this.gaussian[d] = random.nextGaussian();
+      }
+      this.current = this.step(this.current, direction(shape, this.gaussian, this.direction), random.nextDouble());
+    }
+    return this.current.clone();
+  }
+
+  /**
+   * A point drawn uniformly from the cell, or null if it has no interior. The point depends only on the stream, not on
+   * other callers: if the bounding box misses, a few steps are taken from a point picked from the pool.
+   */
+  public double[] sample(final SplittableRandom random)
+  {
+    final double[][] pool = this.getPool();
+    if (null == pool)
+    {
+      return null;
+    }
+    if (null != this.bounds)
+    {
+      for (int i = 0; i < maxRejections; i++)
+      {
+        final double[] point = this.bounds.sample(random);
+        if (this.contains(point))
+        {
+          return point;
+        }
+      }
+    }
+    double[] current = pool[random.nextInt(pool.length)];
+    final double[] gaussian = new double[this.dimensions];
+    final double[] direction = new double[this.dimensions];
+    for (int i = 0; i < stepsPerSample * this.dimensions; i++)
+    {
+      for (int d = 0; d < this.dimensions; d++)
+      {
+        gaussian[d] = gaussian(random);
+      }
+      current = this.step(current, direction(this.shape, gaussian, direction), random.nextDouble());
+    }
+    return current.clone();
+  }
+
+  /**
+   * The factor of the directions' covariance, or null if the cell has no interior
+   */
+  private synchronized double[][] getShape()
+  {
+    this.solve();
+    if (null == this.shape && null != this.center)
+    {
+      final Random random = new Random(shapeSeed);
+      final double[] gaussian = new double[this.dimensions];
+      final double[] direction = new double[this.dimensions];
+      double[] current = this.center;
+      // Isotropic at first; each round's points then spread further along the cell than the last's
+      double[][] shape = new double[this.dimensions][this.dimensions];
+      for (int d = 0; d < this.dimensions; d++)
+      {
+        shape[d][d] = 1;
+      }
+      final int steps = shapeSteps * this.dimensions;
+      for (int round = 0; round < shapeRounds; round++)
+      {
+        final double[] sum = new double[this.dimensions];
+        final double[][] products = new double[this.dimensions][this.dimensions];
+        for (int i = 0; i < steps; i++)
+        {
+          for (int d = 0; d < this.dimensions; d++)
+          {
+            gaussian[d] = random.nextGaussian();
+          }
+          current = this.step(current, direction(shape, gaussian, direction), random.nextDouble());
+          for (int a = 0; a < this.dimensions; a++)
+          {
+            sum[a] += current[a];
+            for (int b = 0; b <= a; b++)
+            {
+              products[a][b] += current[a] * current[b];
+            }
+          }
+        }
+        final double[][] covariance = new double[this.dimensions][this.dimensions];
+        for (int a = 0; a < this.dimensions; a++)
+        {
+          for (int b = 0; b <= a; b++)
+          {
+            covariance[a][b] = products[a][b] / steps - sum[a] * sum[b] / steps / steps;
+          }
+        }
+        final double[][] factor = cholesky(covariance);
+        if (null != factor)
+        {
+          shape = factor;
+        }
+      }
+      this.start = current;
+      this.shape = shape;
+    }
+    return this.shape;
+  }
+
+  /**
+   * The starting points for sample(SplittableRandom), or null if the cell has no interior
+   */
+  private synchronized double[][] getPool()
+  {
+    final double[][] shape = this.getShape();
+    if (null == this.pool && null != shape)
+    {
+      final Random random = new Random(poolSeed);
+      final double[] gaussian = new double[this.dimensions];
+      final double[] direction = new double[this.dimensions];
+      double[] current = this.start;
+      final double[][] pool = new double[poolSize][];
+      final int spacing = poolSpacing * this.dimensions;
+      for (int i = 0; i < poolSize * spacing; i++)
+      {
+        for (int d = 0; d < this.dimensions; d++)
+        {
+          gaussian[d] = random.nextGaussian();
+        }
+        current = this.step(current, direction(shape, gaussian, direction), random.nextDouble());
+        if (0 == (i + 1) % spacing)
+        {
+          pool[i / spacing] = current;
+        }
+      }
+      this.pool = pool;
+    }
+    return this.pool;
+  }
+
+  /**
+   * The lower triangular factor of the covariance, read from its lower triangle, with a little added to its diagonal;
+   * null if it has no spread in some direction
+   */
+  private static double[][] cholesky(final double[][] covariance)
+  {
+    final int n = covariance.length;
+    double trace = 0;
+    for (int d = 0; d < n; d++)
+    {
+      trace += covariance[d][d];
+    }
+    final double[][] factor = new double[n][n];
+    for (int a = 0; a < n; a++)
+    {
+      for (int b = 0; b <= a; b++)
+      {
+        double value = covariance[a][b] + (a == b ? 1e-12 * trace : 0);
+        for (int k = 0; k < b; k++)
+        {
+          value -= factor[a][k] * factor[b][k];
+        }
+        if (a == b)
+        {
+          if (!(0 < value))
+          {
+            return null;
+          }
+          factor[a][a] = Math.sqrt(value);
+        }
+        else
+        {
+          factor[a][b] = value / factor[b][b];
+        }
+      }
+    }
+    return factor;
+  }
+
+  /**
+   * Writes the shape times the Gaussian into direction
+   */
+  private static double[] direction(final double[][] shape, final double[] gaussian, final double[] direction)
+  {
+    for (int a = 0; a < shape.length; a++)
+    {
+      double value = 0;
+      for (int b = 0; b <= a; b++)
+      {
+        value += shape[a][b] * gaussian[b];
+      }
+      direction[a] = value;
+    }
+    return direction;
+  }
+
+  private static double gaussian(final SplittableRandom random)
+  {
+    // Box-Muller, as SplittableRandom has no nextGaussian
+    return Math.sqrt(-2 * Math.log(1 - random.nextDouble())) * Math.cos(2 * Math.PI * random.nextDouble());
+  }
+
+  /**
+   * The point a fraction u of the way along the chord through current in the given direction; current itself if the
+   * chord is degenerate
+   */
+  private double[] step(final double[] current, final double[] direction, final double u)
+  {
+    // The chord is current + t * direction for t in (from, to)
+    double from = Double.NEGATIVE_INFINITY;
+    double to = Double.POSITIVE_INFINITY;
+    for (int i = 0; i < this.normal.length; i++)
+    {
+      final double slope = dot(this.normal[i], direction);
+      if (0 == slope)
+      {
+        continue;
+      }
+      final double value = dot(this.normal[i], current);
+      final double a = (this.lower[i] - value) / slope;
+      final double b = (this.upper[i] - value) / slope;
+      from = Math.max(from, Math.min(a, b));
+      to = Math.min(to, Math.max(a, b));
+    }
+    if (!(from < to) || Double.isInfinite(from) || Double.isInfinite(to))
+    {
+      return current;
+    }
+    final double t = from + u * (to - from);
+    final double[] next = new double[this.dimensions];
+    for (int d = 0; d < this.dimensions; d++)
+    {
+      next[d] = current[d] + t * direction[d];
+    }
+    // Rounding can carry a point onto or just past a face
+    return this.contains(next) ? next : current;
+  }
+
+  private void solve()
+  {
+    if (this.isSolved)
+    {
+      return;
+    }
+    this.isSolved = true;
+    this.center = this.getCenter();
+    if (null != this.center)
+    {
+      this.bounds = this.getBoundingBox();
+    }
+  }
+
+  private List<LinearConstraint> getConstraints(final int variables)
+  {
+    // Any variable past the coordinates is the radius of a ball kept clear of every face
+    final List<LinearConstraint> constraints = new ArrayList<LinearConstraint>();
+    for (int i = 0; i < this.normal.length; i++)
+    {
+      final double[] coefficients = Arrays.copyOf(this.normal[i], variables);
+      final double norm = Math.sqrt(dot(this.normal[i], this.normal[i]));
+      if (!Double.isInfinite(this.upper[i]))
+      {
+        if (this.dimensions < variables)
+        {
+          coefficients[this.dimensions] = norm;
+        }
+        constraints.add(new LinearConstraint(coefficients.clone(), Relationship.LEQ, this.upper[i]));
+      }
+      if (!Double.isInfinite(this.lower[i]))
+      {
+        if (this.dimensions < variables)
+        {
+          coefficients[this.dimensions] = -norm;
+        }
+        constraints.add(new LinearConstraint(coefficients.clone(), Relationship.GEQ, this.lower[i]));
+      }
+    }
+    return constraints;
+  }
+
+  private static PointValuePair optimize(final double[] objective, final List<LinearConstraint> constraints, final GoalType goal)
+  {
+    try
+    {
+      return new SimplexSolver().optimize(new MaxIter(10000), new LinearObjectiveFunction(objective, 0), new LinearConstraintSet(constraints), goal, new NonNegativeConstraint(false));
+    }
+    catch (final MathIllegalStateException e)
+    {
+      // Infeasible, unbounded, or not solved within the iteration limit
+      return null;
+    }
+  }
+
+  /**
+   * Solves for the largest ball within the cell, setting its radius; null if there is none
+   */
+  private double[] getCenter()
+  {
+    final double[] objective = new double[this.dimensions + 1];
+    objective[this.dimensions] = 1;
+    final List<LinearConstraint> constraints = this.getConstraints(this.dimensions + 1);
+    constraints.add(new LinearConstraint(objective, Relationship.GEQ, 0));
+    final PointValuePair solution = optimize(objective, constraints, GoalType.MAXIMIZE);
+    if (null == solution || !(0 < solution.getPoint()[this.dimensions]))
+    {
+      return null;
+    }
+    this.radius = solution.getPoint()[this.dimensions];
+    final double[] center = Arrays.copyOf(solution.getPoint(), this.dimensions);
+    return this.contains(center) ? center : null;
+  }
+
+  /**
+   * Solves for the extent of the cell along each axis; null if any is unbounded
+   */
+  private DoubleVolume getBoundingBox()
+  {
+    final List<LinearConstraint> constraints = this.getConstraints(this.dimensions);
+    final DoubleVolume box = new DoubleVolume();
+    for (int d = 0; d < this.dimensions; d++)
+    {
+      final double[] objective = new double[this.dimensions];
+      objective[d] = 1;
+      final PointValuePair min = optimize(objective, constraints, GoalType.MINIMIZE);
+      final PointValuePair max = optimize(objective, constraints, GoalType.MAXIMIZE);
+      if (null == min || null == max)
+      {
+        return null;
+      }
+      // Widened a little, as the solver's vertices can fall just inside the cell's true extent
+      final double margin = 1e-9 * (max.getValue() - min.getValue());
+      box.add(new DoubleRange(min.getValue() - margin, max.getValue() + margin));
+    }
+    return box;
+  }
+
+}
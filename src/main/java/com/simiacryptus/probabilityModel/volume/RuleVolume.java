@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.SplittableRandom;
 
 import javax.naming.OperationNotSupportedException;
 
@@ -16,6 +17,7 @@ import com.simiacryptus.lang.NotImplementedException;
 import com.simiacryptus.probabilityModel.rules.MetricRule;
 import com.simiacryptus.probabilityModel.rules.PartitionRule;
 import com.simiacryptus.probabilityModel.rules.metrics.DimensionMetric;
+import com.simiacryptus.probabilityModel.rules.pca.LinearMetric;
 import com.simiacryptus.util.ObjUtil;
 
 public class RuleVolume implements SpacialVolume
@@ -30,6 +32,10 @@ public class RuleVolume implements SpacialVolume
   int                              totalPoints    = 0;
   private boolean                  isZeroVolume   = false;
   private static final int         cachedPointCap = 50000;
+  // Parent draws without a match after which a cell is taken as empty
+  private static final int         maxSieveDraws  = 1000;
+  private Polytope                 polytope;
+  private boolean                  isPolytopeBuilt = false;
   
   public RuleVolume(final SpacialVolume parentVolume, final PartitionRule rule, final int rulePartition)
   {
@@ -54,6 +60,22 @@ public class RuleVolume implements SpacialVolume
     return true;
   }
   
+  @Override
+  public synchronized RuleVolume copy()
+  {
+    final RuleVolume copy = new RuleVolume(this.parentVolume.copy(), this.rule, this.rulePartition);
+    copy.points.addAll(this.points);
+    copy.matchedPoints = this.matchedPoints;
+    copy.totalPoints = this.totalPoints;
+    copy.isZeroVolume = this.isZeroVolume;
+    if (this.isPolytopeBuilt)
+    {
+      copy.polytope = null == this.polytope ? null : this.polytope.copy();
+      copy.isPolytopeBuilt = true;
+    }
+    return copy;
+  }
+  
   @Override
   public int dimensions()
   {
@@ -93,8 +115,9 @@ public class RuleVolume implements SpacialVolume
           final DoubleRange intersect = range.intersect(metricRange);
           if(null == intersect)
           {
-            // TODO: This should never happen??
-            throw new NullPointerException();
+            // The partition lies beyond the parent's range, as when a split falls on its edge, so the cell is empty
+            final double edge = Math.min(Math.max(metricRange.from, range.from), range.to);
+            return new DoubleRange(edge, edge);
           }
           return intersect;
         }
@@ -105,7 +128,7 @@ public class RuleVolume implements SpacialVolume
   
   public double getSieveFactor()
   {
-    double sieveFactor = (double) this.matchedPoints / this.totalPoints;
+    double sieveFactor = null == this.getPolytope() ? (double) this.matchedPoints / this.totalPoints : this.getVolume().value / this.parentVolume.getVolume().value;
     if (this.parentVolume instanceof RuleVolume)
     {
       sieveFactor *= ((RuleVolume) this.parentVolume).getSieveFactor();
@@ -113,9 +136,18 @@ public class RuleVolume implements SpacialVolume
     return sieveFactor;
   }
   
+  /**
+   * Taken from the cell's polytope when the rule is linear; otherwise estimated from the fraction of the parent's
+   * points the rule accepts, which is taken as zero if none of the first thousand are.
+   */
   @Override
   public VolumeMetric getVolume()
   {
+    final Polytope polytope = this.getPolytope();
+    if (null != polytope)
+    {
+      return new VolumeMetric(polytope.getVolume(), this.dimensions());
+    }
     if (this.isZeroVolume)
     {
       return new VolumeMetric(0, this.dimensions());
@@ -201,35 +233,124 @@ public class RuleVolume implements SpacialVolume
     };
   }
   
+  /**
+   * Drawn from the cell's polytope when the rule is linear, at a cost independent of the depth of nesting; otherwise
+   * by rejection from the parent volume.
+   */
   @Override
   public double[] sample()
   {
-    while (!this.isZeroVolume)
+    final Polytope polytope = this.getPolytope();
+    if (null == polytope)
+    {
+      while (!this.isZeroVolume)
+      {
+        final double[] sample = this.sieve();
+        if (null != sample)
+        {
+          return sample;
+        }
+      }
+      return null;
+    }
+    final double[] sample = polytope.sample(DoubleVolume.random);
+    if (null == sample)
     {
-      final double[] sample = this.parentPoints.next();
+      this.isZeroVolume = true;
+      return null;
+    }
+    if (this.points.size() < cachedPointCap)
+    {
+      this.points.add(sample);
+    }
+    return sample;
+  }
+  
+  /**
+   * As sample(), but leaves the cached points and counts alone; without a polytope, as many parent draws missing as
+   * sample() allows before it takes the cell as empty give null
+   */
+  @Override
+  public double[] sample(final SplittableRandom random)
+  {
+    final Polytope polytope = this.getPolytope();
+    if (null != polytope)
+    {
+      return polytope.sample(random);
+    }
+    for (int i = 0; !this.isZeroVolume && i < maxSieveDraws; i++)
+    {
+      final double[] sample = this.parentVolume.sample(random);
       if (null == sample)
       {
-        this.isZeroVolume = true;
-        break;
+        return null;
       }
-      this.totalPoints++;
       if (this.rule.evaluate(sample) == this.rulePartition)
       {
-        this.matchedPoints++;
-        if (this.points.size() < cachedPointCap)
-        {
-          this.points.add(sample);
-        }
         return sample;
       }
-      else
+    }
+    return null;
+  }
+  
+  /**
+   * Draws one point from the parent volume, returning it if the rule accepts it
+   */
+  private double[] sieve()
+  {
+    final double[] sample = this.parentPoints.next();
+    if (null == sample)
+    {
+      this.isZeroVolume = true;
+      return null;
+    }
+    this.totalPoints++;
+    if (this.rule.evaluate(sample) == this.rulePartition)
+    {
+      this.matchedPoints++;
+      if (this.points.size() < cachedPointCap)
       {
-        if (0 == this.matchedPoints && 1000 < this.totalPoints)
-        {
-          this.isZeroVolume = true;
-          break;
-        }
+        this.points.add(sample);
       }
+      return sample;
+    }
+    if (0 == this.matchedPoints && maxSieveDraws < this.totalPoints)
+    {
+      this.isZeroVolume = true;
+    }
+    return null;
+  }
+  
+  @Override
+  public synchronized Polytope getPolytope()
+  {
+    if (!this.isPolytopeBuilt)
+    {
+      this.polytope = this.getPolytope(this.parentVolume.getPolytope());
+      this.isPolytopeBuilt = true;
+    }
+    return this.polytope;
+  }
+  
+  private Polytope getPolytope(final Polytope parent)
+  {
+    if (null == parent || !(this.rule instanceof MetricRule))
+    {
+      return null;
+    }
+    final MetricRule metricRule = (MetricRule) this.rule;
+    final DoubleRange metricRange = metricRule.getMetricRange(this.rulePartition);
+    if (metricRule.metric instanceof DimensionMetric)
+    {
+      final double[] normal = new double[this.dimensions()];
+      normal[((DimensionMetric) metricRule.metric).dimension] = 1;
+      return parent.intersect(normal, metricRange);
+    }
+    if (metricRule.metric instanceof LinearMetric)
+    {
+      final LinearMetric linearMetric = (LinearMetric) metricRule.metric;
+      final double offset = linearMetric.eigenvector.dotProduct(linearMetric.centroid);
+      return parent.intersect(linearMetric.eigenvector.toArray(), new DoubleRange(metricRange.from + offset, metricRange.to + offset));
     }
     return null;
   }
@@ -1,5 +1,7 @@
 package com.simiacryptus.probabilityModel.volume;
 
+import java.util.SplittableRandom;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -11,6 +13,11 @@ public interface SpacialVolume
   
   public abstract boolean contains(double[] point);
   
+  /**
+   * A copy sharing no mutable state with this volume; estimates made so far, such as of its volume, carry over
+   */
+  public abstract SpacialVolume copy();
+  
   public abstract int dimensions();
   
   @Override
@@ -22,6 +29,11 @@ public interface SpacialVolume
   
   public abstract VolumeMetric getVolume();
   
+  /**
+   * This volume as a bounded convex polytope, or null if it isn't one
+   */
+  public abstract Polytope getPolytope();
+  
   public abstract SpacialVolume intersect(SpacialVolume right);
   
   public abstract boolean intersects(SpacialVolume range);
@@ -30,6 +42,12 @@ public interface SpacialVolume
   
   public abstract double[] sample();
   
+  /**
+   * A uniform point drawn from the given stream alone, or null if the volume is empty. No state is shared with other
+   * callers that would make the point depend on them, so separate streams can sample concurrently and reproducibly.
+   */
+  public abstract double[] sample(SplittableRandom random);
+  
   public abstract JSONObject toJson() throws JSONException;
 
   public abstract boolean isUnbounded();
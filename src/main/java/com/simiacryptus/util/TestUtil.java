@@ -77,6 +77,31 @@ public class TestUtil
     return coDensity;
   }
 
+  /**
+   * A model over range of count points from the unit cube, skewed so that each has a uniform first coordinate x, a
+   * second uniform below x * x, and any others uniform; range needs at least two dimensions, and must contain the cube
+   */
+  public static PointModel newSkewedModel(final DoubleVolume range, final Random random, final int count)
+  {
+    if (2 > range.dimensions())
+    {
+      throw new IllegalArgumentException(String.format("Skewed points need at least 2 dimensions, not %s", range.dimensions()));
+    }
+    final PointModel model = new PointModel(range);
+    for (int i = 0; i < count; i++)
+    {
+      final double[] point = new double[range.dimensions()];
+      point[0] = random.nextDouble();
+      point[1] = point[0] * point[0] * random.nextDouble();
+      for (int d = 2; d < point.length; d++)
+      {
+        point[d] = random.nextDouble();
+      }
+      model.addDataPoint(point);
+    }
+    return model;
+  }
+
   public static void fillModel(final PointModel model, final Distribution referenceDistribution, final int dataPoints)
   {
       if (model == null || referenceDistribution == null) {
@@ -86,6 +111,7 @@ public class TestUtil
           throw new IllegalArgumentException("Data points must be positive");
       }
 
+      final double[][] batch = new double[dataPoints][];
       for (int i = 0; i < dataPoints; i++)
     {
       final double[] dataPoint = referenceDistribution.sample(random);
@@ -94,8 +120,9 @@ public class TestUtil
         i--;
         continue;
       }
-      model.addDataPoint(dataPoint);
+      batch[i] = dataPoint;
     }
+    model.addDataPoints(batch);
     LOG.d("Filled model with %s data points from %s", dataPoints, referenceDistribution);
   }
 
@@ -105,14 +132,7 @@ public class TestUtil
           throw new IllegalArgumentException("Models cannot be null");
       }
 
-      for (final double[] dataPoint : sourceModel.getDataPoints())
-    {
-      if (!model.getRegion().contains(dataPoint))
-      {
-        continue;
-      }
-      model.addDataPoint(dataPoint);
-    }
+      model.addDataPoints(sourceModel.getDataPoints().stream().filter(model.getRegion()::contains));
     LOG.d("Filled model with %s data points from %s", sourceModel.getWeight(), sourceModel);
   }
   
@@ -152,16 +172,20 @@ public class TestUtil
     double totalN2 = 0;
     double totalNLogN = 0;
     double count = 0;
+    final double[][] dataPoints = new double[sample][];
     for (int i = 0; i < sample; i++)
     {
-      final double[] dataPoint = pointSouce.sample(random);
-        double density;
-        try {
-            density = densityFunction.getDensity().evaluate(dataPoint)[0];
-        } catch (com.simiacryptus.lang.NotImplementedException e) {
-            LOG.d("Density function not implemented for %s, skipping density evaluation", densityFunction.getClass().getSimpleName());
-            continue;
-        }
+      dataPoints[i] = pointSouce.sample(random);
+    }
+    final double[] densities = new double[sample];
+    try {
+        densityFunction.getDensity(dataPoints, densities);
+    } catch (com.simiacryptus.lang.NotImplementedException e) {
+        LOG.d("Density function not implemented for %s, skipping density evaluation", densityFunction.getClass().getSimpleName());
+        return new double[]{0, 0};
+    }
+    for (final double density : densities)
+    {
         if (Double.isNaN(density) || Double.isInfinite(density)) {
             continue;
         }
@@ -201,10 +225,13 @@ public class TestUtil
 
             final String color = distIndex < defaultColors.length ? defaultColors[distIndex] : String.format("#%02X%02X%02X", (int) (random.nextFloat() * 255), (int) (random.nextFloat() * 255), (int) (random.nextFloat() * 255));
 
+            final int dimension = d.getDimension();
+            final double[] samples = new double[size * dimension];
+            d.sampleInto(samples, size, random);
             Point3D[] points = new Point3D[size];
             for (int i = 0; i < size; i++) {
-                final double[] dataPoint = d.sample(random);
-                points[i] = new Point3D(dataPoint[0], dataPoint[1], 3 > dataPoint.length ? 0 : dataPoint[2], color);
+                final int offset = i * dimension;
+                points[i] = new Point3D(samples[offset], samples[offset + 1], 3 > dimension ? 0 : samples[offset + 2], color);
             }
 
             plots[distIndex] = new ScatterPlot(points, "Distribution " + distIndex,